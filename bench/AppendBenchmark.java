@@ -0,0 +1,61 @@
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+/**
+ * Times adding captures to the current file text area, the old way of
+ * getText() and setText() for every capture against appending only the
+ * new capture to the end of the document.
+ *
+ * <p>
+ * Usage: java -Djava.awt.headless=true AppendBenchmark [captures] [replaced captures]
+ * </p>
+ *
+ * The old way grows with the square of the captures, so it only replaces
+ * text for the first 2000 captures by default.
+ */
+public class AppendBenchmark {
+    private final static String CAPTURE = "First line of a capture\nSecond line of it\nThird and last line";
+
+    public static void main(String[] args) throws Exception {
+        final int captures = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int replacedCaptures = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                long replaceTime = replaceText(replacedCaptures);
+                long appendTime = appendText(captures);
+
+                System.out.println("getText + setText: " + replacedCaptures + " captures in "
+                    + replaceTime + " ms");
+                System.out.println("append:            " + captures + " captures in "
+                    + appendTime + " ms");
+            }
+        });
+    }
+
+    private static long replaceText(int captures) {
+        JTextArea textArea = new JTextArea();
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < captures; i++) {
+            StringBuilder currentText = new StringBuilder(textArea.getText());
+            if (currentText.length() != 0)
+                currentText.append("\n");
+            currentText.append(CAPTURE);
+            textArea.setText(currentText.toString());
+        }
+
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    private static long appendText(int captures) {
+        JTextArea textArea = new JTextArea();
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < captures; i++)
+            textArea.append(textArea.getDocument().getLength() == 0 ? CAPTURE : "\n" + CAPTURE);
+
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+}
@@ -0,0 +1,94 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import main.misc.FileNameComparator;
+
+/**
+ * Times sorting a folder of file names, the old way of splitting names
+ * with a regex and comparing numbers as BigInteger against
+ * <code>FileNameComparator.compareNames</code>, which walks names in place.
+ *
+ * <p>
+ * Usage: java ComparatorBenchmark [names] [runs]
+ * </p>
+ */
+public class ComparatorBenchmark {
+    private final static String[] NAME_FORMATS = {
+        "capture %d.txt", "Capture %03d.txt", "IMG_%04d.png", "notes 2024-%02d-%02d.txt",
+        "chapter %d part %d.txt", "report v%d.%d final.docx", "%d.txt"
+    };
+
+    public static void main(String[] args) {
+        int nameCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        String[] names = makeNames(nameCount);
+        Comparator<String> oldComparator = new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return compareSplit(o1, o2, true);
+            }
+        };
+        Comparator<String> newComparator = new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return FileNameComparator.compareNames(o1, o2, true);
+            }
+        };
+
+        for (int run = 1; run <= runs; run++) {
+            String[] sortedNames = names.clone();
+            long startTime = System.nanoTime();
+            Arrays.sort(sortedNames, oldComparator);
+            long oldTime = (System.nanoTime() - startTime) / 1000000;
+
+            sortedNames = names.clone();
+            startTime = System.nanoTime();
+            Arrays.sort(sortedNames, newComparator);
+            long newTime = (System.nanoTime() - startTime) / 1000000;
+
+            System.out.println("Run " + run + ": regex + BigInteger " + oldTime + " ms, compareNames "
+                + newTime + " ms (" + nameCount + " names)");
+        }
+    }
+
+    private static String[] makeNames(int count) {
+        Random random = new Random(42);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            String format = NAME_FORMATS[random.nextInt(NAME_FORMATS.length)];
+            names[i] = String.format(format, random.nextInt(2000) + 1, random.nextInt(28) + 1);
+        }
+        return names;
+    }
+
+    private static final Pattern NUMBERS =
+        Pattern.compile("(?<=\\D)(?=\\d)|(?<=\\d)(?=\\D)");
+
+    // FileNameComparator before it walked names in place
+    private static int compareSplit(String o1, String o2, boolean ascending) {
+        String[] split1 = NUMBERS.split(o1);
+        String[] split2 = NUMBERS.split(o2);
+        for (int i = 0; i < Math.min(split1.length, split2.length); i++) {
+            char c1 = split1[i].charAt(0);
+            char c2 = split2[i].charAt(0);
+            int cmp = 0;
+
+            if (c1 >= '0' && c1 <= '9' && c2 >= '0' && c2 <= '9')
+                cmp = ascending ? new BigInteger(split1[i]).compareTo(new BigInteger(split2[i]))
+                    : new BigInteger(split2[i]).compareTo(new BigInteger(split1[i]));
+
+            if (cmp == 0)
+                cmp = ascending ? split1[i].compareTo(split2[i])
+                    : split2[i].compareTo(split1[i]);
+
+            if (cmp != 0)
+                return cmp;
+        }
+
+        return split1.length - split2.length;
+    }
+}
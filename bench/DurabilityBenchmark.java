@@ -0,0 +1,58 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import main.ComplierState;
+import main.utility.FileUtil;
+import main.utility.LogUtil;
+
+/**
+ * Saves per second with each save mode and durability policy of
+ * <code>FileUtil.save</code>. Run it on the disk the text files are saved
+ * to, forcing to disk costs very differently between disks.
+ *
+ * <p>
+ * Usage: java DurabilityBenchmark [saves] [size in KB] [folder]
+ * </p>
+ */
+public class DurabilityBenchmark {
+    private final static String[] POLICY_NAMES = { "none", "on save", "batched" };
+
+    public static void main(String[] args) throws IOException {
+        int saves = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int size = (args.length > 1 ? Integer.parseInt(args[1]) : 10) * 1024;
+        File parent = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+
+        LogUtil.setSink(new LogUtil.LogSink() {
+            @Override
+            public void log(String text) {
+            }
+        });
+
+        StringBuilder text = new StringBuilder(size);
+        while (text.length() < size)
+            text.append("Captured text to be saved\n");
+
+        File folder = Files.createTempDirectory(parent.toPath(), "durability_benchmark").toFile();
+        try {
+            for (boolean atomicSave : new boolean[] { false, true }) {
+                for (int policy = FileUtil.SYNC_NONE; policy <= FileUtil.SYNC_BATCHED; policy++) {
+                    ComplierState.atomicSave = atomicSave;
+                    ComplierState.saveDurability = policy;
+
+                    long startTime = System.nanoTime();
+                    for (int i = 0; i < saves; i++)
+                        FileUtil.save(new File(folder, "file " + i + ".txt").getPath(), text.toString());
+                    double seconds = (System.nanoTime() - startTime) / 1e9;
+
+                    System.out.println(String.format("%-8s %-8s %8.1f saves per second",
+                        atomicSave ? "atomic" : "in place", POLICY_NAMES[policy], saves / seconds));
+                }
+            }
+        } finally {
+            for (File file : folder.listFiles())
+                file.delete();
+            folder.delete();
+        }
+    }
+}
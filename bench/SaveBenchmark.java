@@ -0,0 +1,74 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import main.ComplierState;
+import main.utility.FileUtil;
+import main.utility.LogUtil;
+
+/**
+ * Times saving one large text, the old way of splitting it into lines and
+ * writing them through a FileWriter against <code>FileUtil.save</code>,
+ * which encodes the text in a single pass.
+ *
+ * <p>
+ * Usage: java SaveBenchmark [size in MB] [runs] [folder]
+ * </p>
+ */
+public class SaveBenchmark {
+    public static void main(String[] args) throws IOException {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 50) * 1024 * 1024;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        File folder = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+
+        // Only the writing is timed, not forcing it to disk
+        ComplierState.atomicSave = false;
+        ComplierState.saveDurability = FileUtil.SYNC_NONE;
+        LogUtil.setSink(new LogUtil.LogSink() {
+            @Override
+            public void log(String text) {
+            }
+        });
+
+        String text = makeText(size);
+        File file = new File(folder, "save_benchmark.txt");
+        try {
+            for (int run = 1; run <= runs; run++) {
+                long startTime = System.nanoTime();
+                saveLines(file, text);
+                long linesTime = (System.nanoTime() - startTime) / 1000000;
+
+                startTime = System.nanoTime();
+                FileUtil.save(file.getPath(), text);
+                long saveTime = (System.nanoTime() - startTime) / 1000000;
+
+                System.out.println("Run " + run + ": split lines " + linesTime + " ms, FileUtil.save "
+                    + saveTime + " ms (" + size / (1024 * 1024) + " MB)");
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static String makeText(int size) {
+        StringBuilder text = new StringBuilder(size);
+        for (int line = 0; text.length() < size; line++)
+            text.append("Line ").append(line).append(" of captured text, with some more words\n");
+        return text.toString();
+    }
+
+    // FileUtil.save before it streamed the text
+    private static void saveLines(File file, String text) throws IOException {
+        String newLine = System.getProperty("line.separator");
+        BufferedWriter outWriter = new BufferedWriter(new FileWriter(file, false));
+        try {
+            for (String line : text.split("\\n")) {
+                outWriter.write(line);
+                outWriter.write(newLine);
+            }
+        } finally {
+            outWriter.close();
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import main.listeners.clipboard.CaptureSource;
+import main.listeners.clipboard.ClipboardInterface;
+import main.listeners.clipboard.ClipboardListener;
+import main.listeners.clipboard.ScriptedCaptureSource;
+import main.utility.CaptureJournal;
+import main.utility.FileUtil;
+import main.utility.LogUtil;
+
+/**
+ * <p>
+ * Captures clipboard changes straight to text files without a window,
+ * started with <code>--headless</code>. Captures are buffered and appended
+ * to the current file at most once every autosave interval or once every
+ * few captures, the same way the window autosaves. Unsaved captures are
+ * kept in the capture journal and recovered on the next start.
+ * </p>
+ *
+ * <p>
+ * Settings are read from a properties file given with <code>--config</code>,
+ * then overridden by flags with the same names, e.g
+ * <code>--folder captures --leading Chapter --number 1 --zeros 3</code>.
+ * No Swing classes are loaded, but AWT still needs a display to access the
+ * system clipboard. With <code>--source scripted</code> captures are
+ * replayed instead, and the program exits once all are saved.
+ * </p>
+ */
+public class CaptureDaemon implements ClipboardInterface {
+    private final static String USAGE = "Usage: --headless --folder <folder> [--leading <text>]"
+        + " [--number <number>] [--zeros <digits>] [--trailing <text>]"
+        + " [--autosave-interval <ms>] [--autosave-captures <count>]"
+        + " [--captures-per-file <count>] [--journal <file>] [--config <file>]"
+        + " [--source clipboard|scripted [--script <file> | --count <count> --size <chars>] [--rate <per second>]]";
+
+    private File folder;
+    private String leading;
+    private int number;
+    private String zeros;
+    private String trailing;
+    private int autosaveInterval;
+    private int autosaveCaptures;
+    private int capturesPerFile;
+
+    private final CaptureJournal captureJournal;
+    private final Properties settings;
+    private CaptureSource captureSource;
+
+    // Captures waiting to be saved, only accessed while synchronized
+    private List<String> pendingCaptures = new ArrayList<String>();
+    private List<Long> pendingSequences = new ArrayList<Long>(); // Journal sequence of each
+    private boolean isStopped = false;
+
+    // File being written and how its text ends, only used by saver thread
+    private File targetFile = null;
+    private int fileCaptures = 0;
+    private FileUtil.AppendedText savedText = new FileUtil.AppendedText();
+    private Thread saverThread;
+
+    private CaptureDaemon(Properties settings, CaptureJournal captureJournal) {
+        this.captureJournal = captureJournal;
+        this.settings = settings;
+
+        folder = new File(settings.getProperty("folder", ""));
+        leading = settings.getProperty("leading", "");
+        number = Integer.parseInt(settings.getProperty("number", "1").trim());
+        zeros = settings.getProperty("zeros", "");
+        trailing = settings.getProperty("trailing", "");
+        autosaveInterval = Math.max(100, Integer.parseInt(settings.getProperty("autosave-interval", "5000").trim()));
+        autosaveCaptures = Math.max(1, Integer.parseInt(settings.getProperty("autosave-captures", "20").trim()));
+        capturesPerFile = Math.max(0, Integer.parseInt(settings.getProperty("captures-per-file", "0").trim()));
+    }
+
+    public static void main(String[] args) {
+        Properties settings;
+        try {
+            settings = readSettings(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final CaptureDaemon daemon;
+        try {
+            // Own journal by default, so captures of the window are never 
+            // recovered here and the other way round
+            String journalPath = settings.getProperty("journal");
+            CaptureJournal captureJournal = new CaptureJournal(journalPath == null
+                ? CaptureJournal.getDefaultHeadlessPath() : Paths.get(journalPath));
+            daemon = new CaptureDaemon(settings, captureJournal);
+            daemon.captureSource = daemon.createCaptureSource();
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        if (!daemon.folder.isDirectory()) {
+            System.err.println("Output folder does not exist: " + daemon.folder.getAbsolutePath());
+            System.exit(2);
+            return;
+        }
+
+        // Ctrl+C or kill saves captures still waiting for autosave interval
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                daemon.stop();
+            }
+        }, "Capture Daemon Shutdown"));
+
+        daemon.start();
+    }
+
+    /**
+     * Settings from config file, overridden by command line flags.
+     */
+    private static Properties readSettings(String[] args) throws IOException {
+        Properties flags = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--headless"))
+                continue;
+
+            if (!args[i].startsWith("--") || i + 1 == args.length)
+                throw new IllegalArgumentException("Invalid argument: " + args[i]);
+
+            flags.setProperty(args[i].substring(2), args[i + 1]);
+            i++;
+        }
+
+        Properties settings = new Properties();
+        String configPath = flags.getProperty("config");
+        if (configPath != null) {
+            InputStream input = Files.newInputStream(Paths.get(configPath));
+            try {
+                settings.load(input);
+            } finally {
+                input.close();
+            }
+        }
+
+        settings.putAll(flags);
+        return settings;
+    }
+
+    private void start() {
+        // Captures not saved by the previous session go first
+        List<String> recoveredCaptures = captureJournal.replay();
+        if (!recoveredCaptures.isEmpty()) {
+            LogUtil.log("Recovered " + recoveredCaptures.size() + " unsaved captures from last session");
+            synchronized (this) {
+                pendingCaptures.addAll(recoveredCaptures);
+                pendingSequences.addAll(captureJournal.getReplayedSequences());
+            }
+        }
+
+        saverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                saveCaptures();
+            }
+        }, "Capture Saver");
+        saverThread.start();
+
+        captureSource.addClipBoardListener(this);
+        captureSource.startCapture();
+
+        LogUtil.log("Capturing clipboard to: " + folder.getAbsolutePath());
+    }
+
+    /**
+     * System clipboard, or a scripted source replaying captures from a
+     * file or made up captures for testing without a display.
+     */
+    private CaptureSource createCaptureSource() throws IOException {
+        String source = settings.getProperty("source", "clipboard");
+        if (source.equals("clipboard"))
+            return new ClipboardListener();
+        if (!source.equals("scripted"))
+            throw new IllegalArgumentException("Unknown capture source: " + source);
+
+        double rate = Double.parseDouble(settings.getProperty("rate", "0").trim());
+        String scriptPath = settings.getProperty("script");
+        final ScriptedCaptureSource scriptedSource = scriptPath != null
+            ? ScriptedCaptureSource.fromFile(Paths.get(scriptPath), rate)
+            : ScriptedCaptureSource.synthetic(
+                Integer.parseInt(settings.getProperty("count", "1000").trim()),
+                Integer.parseInt(settings.getProperty("size", "100").trim()), rate);
+
+        // Exit once script is done, shutdown hook saves remaining captures
+        scriptedSource.setOnFinished(new Runnable() {
+            @Override
+            public void run() {
+                LogUtil.log("Replayed " + scriptedSource.getSummary());
+                System.exit(0);
+            }
+        });
+        return scriptedSource;
+    }
+
+    /**
+     * Stop capturing and save all pending captures before the program
+     * exits.
+     */
+    private void stop() {
+        if (captureSource != null) {
+            captureSource.stopCapture();
+
+            // Scripted source logs its summary once it has finished
+            if (captureSource instanceof ClipboardListener)
+                LogUtil.log(captureSource.getSummary());
+        }
+
+        synchronized (this) {
+            isStopped = true;
+            notifyAll();
+        }
+
+        try {
+            if (saverThread != null)
+                saverThread.join(5000);
+        } catch (InterruptedException e) {
+        }
+        captureJournal.close();
+    }
+
+    /**
+     * Called on the clipboard listener thread. Keeps capture in the journal
+     * and wakes saver thread once enough captures are waiting.
+     */
+    @Override
+    public void onClipboardUpdate(String data) {
+        synchronized (this) {
+            if (isStopped)
+                return;
+
+            pendingSequences.add(captureJournal.append(data));
+            pendingCaptures.add(data);
+
+            // First capture starts the autosave interval
+            if (pendingCaptures.size() == 1 || pendingCaptures.size() >= autosaveCaptures)
+                notifyAll();
+        }
+    }
+
+    @Override
+    public void onClipboardListenerCrash() {
+        LogUtil.log("Clipboard listener crashed, restarting");
+    }
+
+    @Override
+    public void onClipboardListenerDied() {
+        LogUtil.log("Unable to restart clipboard listener, exiting");
+
+        // Exit from another thread, shutdown hook waits for this thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                System.exit(1);
+            }
+        }).start();
+    }
+
+    /**
+     * Saver thread: waits until enough captures are pending or the
+     * autosave interval since the first pending capture is up, then
+     * writes them all at once.
+     */
+    private void saveCaptures() {
+        long retryTime = 0;
+        while (true) {
+            List<String> captures;
+            List<Long> sequences;
+            boolean isLast;
+
+            synchronized (this) {
+                long deadline = 0;
+                while (!isStopped) {
+                    long now = System.currentTimeMillis();
+
+                    // After a failed save, wait an interval before trying again
+                    boolean isRetrying = now < retryTime;
+                    if (!isRetrying && pendingCaptures.size() >= autosaveCaptures)
+                        break;
+
+                    if (!pendingCaptures.isEmpty()) {
+                        if (deadline == 0)
+                            deadline = Math.max(now + autosaveInterval, retryTime);
+                        if (now >= deadline)
+                            break;
+                    }
+
+                    try {
+                        wait(pendingCaptures.isEmpty() ? 0 : deadline - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                captures = pendingCaptures;
+                sequences = pendingSequences;
+                isLast = isStopped;
+                pendingCaptures = new ArrayList<String>();
+                pendingSequences = new ArrayList<Long>();
+            }
+
+            if (!captures.isEmpty()) {
+                // Captures are saved in order, so every capture up to the last
+                // one written is saved, even if the rest failed. Otherwise 
+                // they would be written again after a crash
+                int savedCount = writeCaptures(captures);
+                if (savedCount > 0)
+                    captureJournal.markSaved(sequences.get(savedCount - 1));
+
+                if (savedCount < captures.size()) {
+                    // Unsaved captures go back in front of newer ones and
+                    // stay in the journal until they are written
+                    List<String> unsavedCaptures = captures.subList(savedCount, captures.size());
+                    synchronized (this) {
+                        pendingCaptures.addAll(0, unsavedCaptures);
+                        pendingSequences.addAll(0, sequences.subList(savedCount, sequences.size()));
+                    }
+                    retryTime = System.currentTimeMillis() + autosaveInterval;
+                    LogUtil.log("Unable to save " + unsavedCaptures.size() + " captures, trying again in "
+                        + autosaveInterval + " ms");
+                }
+            }
+            if (isLast)
+                return;
+        }
+    }
+
+    /**
+     * Append captures to current file, moving on to the next file number
+     * every <code>capturesPerFile</code> captures.
+     *
+     * @return Number of captures saved, from the start of
+     * <code>captures</code>
+     */
+    private int writeCaptures(List<String> captures) {
+        int start = 0;
+        while (start < captures.size()) {
+            if (targetFile == null && !nextTargetFile())
+                return start;
+
+            int end = captures.size();
+            if (capturesPerFile > 0)
+                end = Math.min(end, start + capturesPerFile - fileCaptures);
+
+            if (!writeToTargetFile(captures.subList(start, end)))
+                return start;
+
+            fileCaptures += end - start;
+            start = end;
+
+            if (capturesPerFile > 0 && fileCaptures >= capturesPerFile) {
+                targetFile = null;
+                number++;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Pick file for the current number, skipping numbers of existing files
+     * as only files written by this session are ever appended to.
+     */
+    private boolean nextTargetFile() {
+        while (true) {
+            String fileName = FileUtil.formatFileName(leading, Integer.toString(number), zeros, trailing).trim();
+            if (fileName.isEmpty()) {
+                LogUtil.log("Error! Empty file name. Please set leading or trailing text");
+                return false;
+            }
+
+            File file = new File(folder, fileName + ".txt");
+            if (!file.exists()) {
+                targetFile = file;
+                fileCaptures = 0;
+                savedText = new FileUtil.AppendedText();
+                return true;
+            }
+
+            LogUtil.log("File already exists, skipping: " + file.getAbsolutePath());
+            number++;
+        }
+    }
+
+    /**
+     * Write captures joined by new lines, like the text of the current file
+     * in the window and written the same way as <code>AutoSaver</code>.
+     */
+    private boolean writeToTargetFile(List<String> captures) {
+        StringBuilder newText = new StringBuilder();
+        for (String capture : captures) {
+            if (fileCaptures != 0 || newText.length() != 0)
+                newText.append("\n");
+            newText.append(capture);
+        }
+
+        // Only moved on once written, so a failed write is tried again as is
+        FileUtil.AppendedText.Write write = savedText.add(newText.toString());
+        if (!write.writeTo(targetFile.getAbsolutePath()))
+            return false;
+
+        savedText.apply(write);
+        return true;
+    }
+}
@@ -4,12 +4,23 @@ import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 
+import java.util.Arrays;
+import java.util.List;
+
 import main.listeners.ListenerController;
+import main.utility.CaptureJournal;
+import main.utility.LogUtil;
 import main.utility.PreferenceUtil;
 import main.utility.UiUtil;
 
 public class ClipboardToTxt {
 	public static void main(String[] args) {
+		// Capture without a window, Swing is never loaded
+		if (Arrays.asList(args).contains("--headless")) {
+			CaptureDaemon.main(args);
+			return;
+		}
+
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 		} catch (UnsupportedLookAndFeelException e) {
@@ -22,10 +33,23 @@ public class ClipboardToTxt {
             @Override
             public void run() {
                 final MainWindow mainWindow = new MainWindow("Clipboard To Txt");
+				// Messages of file saving and clipboard also go to console
+				LogUtil.setSink(new LogUtil.LogSink() {
+					@Override
+					public void log(String text) {
+						System.out.println(text);
+						MainWindow.consoleLog(text);
+					}
+				});
 		
 				PreferenceUtil.loadPreferences(mainWindow);
+
+				// Recover unsaved captures if program did not exit normally
+				CaptureJournal captureJournal = new CaptureJournal(CaptureJournal.getDefaultPath());
+				List<String> recoveredCaptures = captureJournal.replay();
 		
-				UiUtil uiUtil = new UiUtil(mainWindow);
+				UiUtil uiUtil = new UiUtil(mainWindow, captureJournal);
+				uiUtil.restoreRecoveredCaptures(recoveredCaptures);
 				new ListenerController(mainWindow, uiUtil);
             }
         });
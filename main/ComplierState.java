@@ -2,6 +2,7 @@ package main;
 
 import java.io.File;
 
+import main.utility.FileUtil;
 import main.views.FileBrowser;
 
 public class ComplierState {
@@ -16,4 +17,14 @@ public class ComplierState {
 	public static boolean showTextFileTop = true;
 
     public static int fileSortBy = FileBrowser.NAME_ASCENDING;
+
+	// Save through temporary file and force to disk based on durability policy
+	public static boolean atomicSave = true;
+	public static int saveDurability = FileUtil.SYNC_ON_SAVE;
+	public static int syncBatchSize = 10;
+
+	// Autosave at most once per interval (in milliseconds) or every N captures
+	public static boolean autosave = false;
+	public static int autosaveInterval = 5000;
+	public static int autosaveCaptures = 20;
 }
@@ -26,9 +26,10 @@ import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.filechooser.FileSystemView;
 
-import main.utility.UiUtil;
+import main.views.ConsoleLog;
 import main.views.FileBrowser;
 import main.views.FileBrowserPopupMenu;
+import main.views.PagedFileViewer;
 
 public class MainWindow extends JFrame {
 
@@ -54,13 +55,18 @@ public class MainWindow extends JFrame {
 
 	public FileBrowser fileBrowser;
 	public JTextArea fileViewerTextArea = new JTextArea();
+	public PagedFileViewer pagedFileViewer;
 	public JTextArea currentFileTextArea = new JTextArea();
 
 	// Bottom section
 	public JTextArea clipboardTextArea = new JTextArea(2, 100);
 	public JCheckBox incrementCheckBox = new JCheckBox("Increment number after save");
+	public JCheckBox autosaveCheckBox = new JCheckBox("Autosave");
+	public JButton saveOptionsButton = new JButton("Save Options");
 	public JButton saveButton = new JButton("Save Manually");
 	public static JTextArea console = new JTextArea(4, 100);
+	private final static int CONSOLE_LINES = 500;
+	private static ConsoleLog consoleBuffer = new ConsoleLog(console, CONSOLE_LINES);
 
 	// Text Fields
 	public JTextField leadingZerosTextField = new JTextField();
@@ -84,20 +90,13 @@ public class MainWindow extends JFrame {
 	}
 
 	/**
-	 * Logs new [text] in bottom console section
+	 * Logs new [text] in bottom console section. Safe to call from any 
+	 * thread, only the latest <code>CONSOLE_LINES</code> lines are kept.
 	 * 
 	 * @param text
 	 */
 	public static void consoleLog(String text) {
-		String currentText = console.getText();
-
-		if (currentText.isEmpty())
-			currentText += text;
-		else
-			currentText += "\n" + text;
-
-		console.setText(currentText);
-		UiUtil.bringCursorToStart(console);
+		consoleBuffer.log(text);
 	}
 
 	// Draws GUI layout of the program
@@ -239,6 +238,7 @@ public class MainWindow extends JFrame {
 		showTopPanel.add(showTextFileTopButton);
 
 		JScrollPane fileViewerScrollPane = new JScrollPane(fileViewerTextArea);
+		pagedFileViewer = new PagedFileViewer(fileViewerTextArea, fileViewerScrollPane, fileViewerPanel);
 
 		JPanel showBottomPanel = new JPanel();
 		showBottomPanel.setMaximumSize(new Dimension(
@@ -247,8 +247,13 @@ public class MainWindow extends JFrame {
 		showBottomPanel.setLayout(new GridLayout(1, 1));
 		showBottomPanel.add(showTextFileBottomButton);
 
+		// Whole file scroll bar of large files goes next to the text
+		JPanel fileViewerTextPanel = new JPanel(new BorderLayout());
+		fileViewerTextPanel.add(fileViewerScrollPane, BorderLayout.CENTER);
+		fileViewerTextPanel.add(pagedFileViewer.getFileScrollBar(), BorderLayout.EAST);
+
 		fileViewerPanel.add(showTopPanel);
-		fileViewerPanel.add(fileViewerScrollPane);
+		fileViewerPanel.add(fileViewerTextPanel);
 		fileViewerPanel.add(showBottomPanel);
 
 		JPanel duplicateButtonPanel = new JPanel();
@@ -287,6 +292,10 @@ public class MainWindow extends JFrame {
 		bottomRow.setLayout(new BoxLayout(bottomRow, BoxLayout.X_AXIS));
 		bottomRow.add(incrementCheckBox);
 		bottomRow.add(Box.createRigidArea(new Dimension(15, 0)));
+		bottomRow.add(autosaveCheckBox);
+		bottomRow.add(Box.createRigidArea(new Dimension(15, 0)));
+		bottomRow.add(saveOptionsButton);
+		bottomRow.add(Box.createRigidArea(new Dimension(15, 0)));
 		bottomRow.add(fileNameLabel);
 		bottomRow.add(fileNameTextField);
 		bottomRow.add(Box.createRigidArea(new Dimension(15, 0)));
@@ -5,6 +5,7 @@ import java.awt.event.ActionListener;
 
 import main.ComplierState;
 import main.MainWindow;
+import main.utility.DialogUtil;
 import main.utility.FileUtil;
 import main.utility.UiUtil;
 
@@ -50,6 +51,8 @@ public class ButtonActionListener implements ActionListener {
 				mainWindow.outputFolderTextField.setText(ComplierState.parentDirectory.getAbsolutePath());
 
 		} else if (command.equals("Refresh")) {
+			// List folders again even if they look unchanged
+			mainWindow.fileBrowser.clearListingCache();
 			uiUtil.updateFileBrowser();
 
 		} else if (command.equals("Show Explorer")) {
@@ -66,6 +69,12 @@ public class ButtonActionListener implements ActionListener {
 		} else if (command.equals("Save File")) {
 			uiUtil.saveFile();
 
+		} else if (command.equals("Save Options")) {
+			if (DialogUtil.showSaveOptionsDialog(mainWindow)) {
+				System.out.println("Save options changed, used from next save");
+				MainWindow.consoleLog("Save options changed, used from next save");
+			}
+
 		} else if (command.equals("Duplicate")) {
 			uiUtil.duplicateClipboard();
 
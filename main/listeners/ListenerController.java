@@ -4,43 +4,71 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.JComponent;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.text.PlainDocument;
 
 import main.MainWindow;
+import main.listeners.clipboard.CaptureSource;
 import main.listeners.clipboard.ClipboardInterface;
 import main.listeners.clipboard.ClipboardListener;
 import main.listeners.file_browser.FileBrowserMouseListener;
+import main.listeners.file_browser.FileBrowserSelectionListener;
 import main.listeners.file_browser.FilePopupMenuListener;
 import main.listeners.text_field.FileNameDocumentListener;
 import main.listeners.text_field.OutputFolderDocumentListener;
+import main.misc.CaptureQueue;
 import main.misc.IntegerFilter;
 import main.utility.DialogUtil;
 import main.utility.UiUtil;
 import main.ComplierState;
 
 public class ListenerController implements ClipboardInterface {
+	private final int CAPTURE_QUEUE_SIZE = 1024;
+
 	MainWindow mainWindow;
 	UiUtil uiUtil;
+	CaptureSource board;
+
+	// Hands captures from the clipboard listener thread to the Swing thread
+	private final CaptureQueue<String> captureQueue = new CaptureQueue<String>(CAPTURE_QUEUE_SIZE);
+	private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
+	private final Runnable drainCaptures = new Runnable() {
+		@Override
+		public void run() {
+			// Clear flag first so captures queued while draining schedule another drain
+			isDrainScheduled.set(false);
+
+			List<String> captures = new ArrayList<String>();
+			captureQueue.drainTo(captures);
+			if (!captures.isEmpty())
+				uiUtil.handleClipboardUpdates(captures);
+		}
+	};
 
 	public ListenerController(MainWindow mainWindow, UiUtil uiUtil) {
 		this.mainWindow = mainWindow;
 		this.uiUtil = uiUtil;
 
 		// Start listening to clipboard changes
-		ClipboardListener board = new ClipboardListener();
+		board = new ClipboardListener();
 		board.addClipBoardListener(this);
-		board.start();
+		board.startCapture();
 
 		setupListeners();
 	}
 
 	private void setupListeners() {
-		mainWindow.addWindowListener(new WindowCloseListener(mainWindow));
+		mainWindow.addWindowListener(new WindowCloseListener(mainWindow, board, uiUtil));
 
 		buttonListeners();
 
@@ -51,19 +79,44 @@ public class ListenerController implements ClipboardInterface {
 		checkBoxListeners();
 	}
 
+	/**
+	 * Called on the clipboard listener thread. Queue capture and let the
+	 * Swing thread apply all queued captures in a single batch. When the 
+	 * queue is full, wait for the Swing thread to catch up instead of 
+	 * dropping the capture.
+	 */
 	@Override
 	public void onClipboardUpdate(String data) {
-		uiUtil.handleClipboardUpdate(data);
+		while (!captureQueue.offer(data)) {
+			scheduleDrain();
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		scheduleDrain();
 	}
 
 	@Override
 	public void onClipboardListenerCrash() {
-		DialogUtil.showClipboardListenerCrashDialog(mainWindow);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				DialogUtil.showClipboardListenerCrashDialog(mainWindow);
+			}
+		});
 	}
 
 	@Override
 	public void onClipboardListenerDied() {
-		DialogUtil.showClipboardListenerDiedDialog(mainWindow);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				DialogUtil.showClipboardListenerDiedDialog(mainWindow);
+			}
+		});
+	}
+
+	private void scheduleDrain() {
+		if (isDrainScheduled.compareAndSet(false, true))
+			SwingUtilities.invokeLater(drainCaptures);
 	}
 
 	private void buttonListeners() {
@@ -105,6 +158,10 @@ public class ListenerController implements ClipboardInterface {
 		mainWindow.duplicateClipboardButton.setActionCommand("Duplicate");
 		mainWindow.duplicateClipboardButton.addActionListener(buttonActionListener);
 
+		mainWindow.saveOptionsButton.setToolTipText("How files are written and forced to disk");
+		mainWindow.saveOptionsButton.setActionCommand("Save Options");
+		mainWindow.saveOptionsButton.addActionListener(buttonActionListener);
+
 		mainWindow.saveButton.setToolTipText("Save file (Ctrl+S)");
 		mainWindow.saveButton.setActionCommand("Save File");
 		mainWindow.saveButton.addActionListener(buttonActionListener);
@@ -152,6 +209,9 @@ public class ListenerController implements ClipboardInterface {
 				mainWindow.fileBrowserPopupMenu,
 				uiUtil));
 
+		// Show selected file, also when selected with the keyboard
+		mainWindow.fileBrowser.getTree().addTreeSelectionListener(new FileBrowserSelectionListener(uiUtil));
+
 		FilePopupMenuListener popupMenuListener = new FilePopupMenuListener(uiUtil);
 
 		mainWindow.fileBrowserPopupMenu.openMenuItem.setActionCommand("open");
@@ -177,5 +237,12 @@ public class ListenerController implements ClipboardInterface {
 				}
 			}
 		});
+
+		mainWindow.autosaveCheckBox.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				ComplierState.autosave = e.getStateChange() == ItemEvent.SELECTED;
+			}
+		});
 	}
 }
@@ -4,18 +4,36 @@ import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 
 import main.MainWindow;
+import main.listeners.clipboard.CaptureSource;
+import main.utility.LogUtil;
 import main.utility.PreferenceUtil;
+import main.utility.TaskUtil;
+import main.utility.UiUtil;
 
 public class WindowCloseListener implements WindowListener {
     MainWindow window;
+    CaptureSource clipboardListener;
+    UiUtil uiUtil;
 
-    public WindowCloseListener(MainWindow window) {
+    public WindowCloseListener(MainWindow window, CaptureSource clipboardListener, UiUtil uiUtil) {
         this.window = window;
+        this.clipboardListener = clipboardListener;
+        this.uiUtil = uiUtil;
     }
     
 	@Override
 	public void windowClosing(WindowEvent e) {
 		PreferenceUtil.saveAllPreferences(window);
+		clipboardListener.stopCapture();
+
+		// Read now, listener thread may not get to run again before exit
+		LogUtil.log(clipboardListener.getSummary());
+		uiUtil.stopWatchingFolder();
+
+		// Let files still being saved finish before program exits
+		uiUtil.flushAutosave();
+		TaskUtil.awaitPendingIo(5000);
+		uiUtil.closeCaptureJournal();
 	}
 
 	@Override
@@ -0,0 +1,30 @@
+package main.listeners.clipboard;
+
+/**
+ * Source of captured clipboard texts. Listeners are called on the
+ * source's own thread, in the order texts are captured.
+ */
+public interface CaptureSource {
+	/**
+	 * Listener to be called for every capture, must be added before 
+	 * <code>startCapture</code>.
+	 * @param listener
+	 */
+	void addClipBoardListener(ClipboardInterface listener);
+
+	/**
+	 * Start capturing on a new thread.
+	 */
+	void startCapture();
+
+	/**
+	 * Stop capturing, no listener is called after this returns except
+	 * for a capture already being handled.
+	 */
+	void stopCapture();
+
+	/**
+	 * One line of capture statistics, e.g to be logged when capture stops.
+	 */
+	String getSummary();
+}
@@ -1,97 +1,295 @@
 package main.listeners.clipboard;
 
-import main.MainWindow;
+import main.utility.LogUtil;
 
 import java.util.List;
 import java.util.ArrayList;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.ClipboardOwner;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 
-public class ClipboardListener extends Thread implements ClipboardOwner {
-	private final int DELAY = 300; // in milliseconds
+public class ClipboardListener extends Thread implements ClipboardOwner, CaptureSource {
+	// Backoff used only while the clipboard is locked by another program
+	private final int RETRY_DELAY = 5; // in milliseconds
+	private final int MAX_RETRY_DELAY = 320; // in milliseconds
 
 	private String previousClipBoard = "";
 	private List<ClipboardInterface> listeners = new ArrayList<ClipboardInterface>();
+
+	// Listener thread parks on this lock until a clipboard change is signalled
+	private final Object lock = new Object();
+	private volatile boolean isListening = true;
+
+	// Every lost ownership is a new clipboard change in the capture stream
+	private long changeSequence = 0;
+	private long handledSequence = 0;
+
+	// Capture statistics for the sustained captures per second figure
+	private long captureCount = 0;
+	private long droppedCount = 0;
+	private long coalescedCount = 0;
+	private long firstCaptureTime = 0;
+	private long lastCaptureTime = 0;
+
+	public ClipboardListener() {
+		super("Clipboard Listener");
+		setDaemon(true);
+	}
 	
+	@Override
 	public void addClipBoardListener(ClipboardInterface listener) {
 		listeners.add(listener);
 	}
+
+	@Override
+	public void startCapture() {
+		start();
+	}
+
+	@Override
+	public void stopCapture() {
+		stopListening();
+	}
   
 	public void run() {
-		try {
-			Thread.sleep(DELAY);
-		} catch (Exception e) {
-			e.printStackTrace();
+		Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+		if (regainClipboardOwnership(clipboard) == null) {
+			restartClipboardListener(clipboard);
 		}
 
-		Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-		regainClipboardOwnership(clipboard);
+		// Clipboard changes are signalled through lostOwnership callbacks. 
+		// Wait (without using CPU) until there is a change to capture
+		while (true) {
+			long sequence;
+			long coalesced;
+			synchronized (lock) {
+				while (isListening && changeSequence == handledSequence) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						isListening = false;
+					}
+				}
+
+				if (!isListening)
+					break;
+
+				// Changes signalled while the previous one was captured are
+				// read as one, only the latest contents can still be read
+				sequence = changeSequence;
+				coalesced = sequence - handledSequence - 1;
+				handledSequence = sequence;
+			}
+
+			if (coalesced > 0) {
+				synchronized (this) {
+					coalescedCount += coalesced;
+				}
+			}
+
+			captureClipboard(clipboard, sequence);
+		}
+	}
+
+	/**
+	 * CPU time and capture rate of the listener so far, e.g "Clipboard 
+	 * listener CPU time used: 12 ms, captured 40 clipboard changes (0.5 per 
+	 * second), dropped 0, coalesced 0".
+	 */
+	@Override
+	public String getSummary() {
+		return "Clipboard listener CPU time used: " + getCpuTimeMillis() + " ms, captured " 
+			+ getCaptureCount() + " clipboard changes (" 
+			+ String.format("%.1f", getCapturesPerSecond()) + " per second), dropped " 
+			+ getDroppedCount() + ", coalesced " + getCoalescedCount();
+	}
+
+	/**
+	 * Wakes up and ends the listener thread. No more clipboard updates
+	 * are handled after this is called.
+	 */
+	public void stopListening() {
+		synchronized (lock) {
+			isListening = false;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * CPU time consumed by the listener thread so far. Stays close to
+	 * zero while idle since the thread is parked waiting for changes.
+	 * 
+	 * @return CPU time in milliseconds or -1 if unsupported by the JVM
+	 */
+	public long getCpuTimeMillis() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!threadBean.isThreadCpuTimeSupported())
+			return -1;
+
+		long cpuTime = threadBean.getThreadCpuTime(getId());
+		return cpuTime == -1 ? -1 : cpuTime / 1000000;
+	}
+
+	/**
+	 * Sustained capture rate measured from the first to the latest
+	 * captured clipboard change.
+	 * 
+	 * @return Captures per second, 0 if less than 2 changes were captured
+	 */
+	public synchronized double getCapturesPerSecond() {
+		long elapsed = lastCaptureTime - firstCaptureTime;
+		if (captureCount < 2 || elapsed <= 0)
+			return 0;
+
+		return (captureCount - 1) * 1000000000.0 / elapsed;
+	}
 
-		while (true) {}
+	/**
+	 * @return Number of clipboard changes passed on to listeners
+	 */
+	public synchronized long getCaptureCount() {
+		return captureCount;
+	}
+
+	/**
+	 * @return Number of clipboard changes that could not be read
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return Number of clipboard changes lost because another change came
+	 * before they were read
+	 */
+	public synchronized long getCoalescedCount() {
+		return coalescedCount;
 	}
   
+	/**
+	 * Called by the toolkit when another program copies something. Only 
+	 * signals the listener thread so that the caller is never blocked and 
+	 * changes are captured in the order they happen.
+	 */
 	public void lostOwnership(Clipboard c, Transferable t) {
-		try {
-			// Pause to wait for clipboard object
-			Thread.sleep(DELAY); 
+		synchronized (lock) {
+			if (!isListening)
+				return;
 
-			// Get current system clipboard instance
-			Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+			changeSequence++;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Regain ownership straight away so the next copy is signalled again,
+	 * then read the text of the captured contents and notify listeners.
+	 * 
+	 * @param clipboard System clipboard
+	 * @param sequence Sequence number of the change being captured
+	 */
+	private void captureClipboard(Clipboard clipboard, long sequence) {
+		Transferable trans = regainClipboardOwnership(clipboard);
+		if (trans == null) {
+			synchronized (this) {
+				droppedCount++;
+			}
+			LogUtil.log("Unable to read clipboard change #" + sequence 
+				+ ", clipboard is busy. Restarting listener.");
 
-			// Get clipboard string data
-			String clipboardString = (String) clipboard.getData(DataFlavor.stringFlavor);
+			// Show dialog to inform user to clipboard listener has crashed
+			for(ClipboardInterface listener : listeners)
+				listener.onClipboardListenerCrash();
+
+			restartClipboardListener(clipboard);
+			return;
+		}
+
+		// Non text contents (e.g images) are not captured
+		if (!trans.isDataFlavorSupported(DataFlavor.stringFlavor))
+			return;
+
+		try {
+			String clipboardString = (String) trans.getTransferData(DataFlavor.stringFlavor);
 
 			// Process new clipboard content
 			// Only update if clipboard content changes
 			if (!clipboardString.equals(previousClipBoard)) {
+				recordCapture();
 				for(ClipboardInterface listener : listeners) {
 					listener.onClipboardUpdate(clipboardString);
 				}
 			}
 			previousClipBoard = clipboardString;
 
-			// Assign the new content to clipboard
-			regainClipboardOwnership(clipboard);
-			
 		} catch (Exception e) {
-			MainWindow.consoleLog("Clipboard Listener has crashed, restarting listener.");
-			MainWindow.consoleLog("Please PAUSE in between copy operations!");
+			synchronized (this) {
+				droppedCount++;
+			}
+			LogUtil.log("Unable to read clipboard change #" + sequence + " as text");
 			System.out.println(e);
-
-			// Show dialog to inform user to clipboard listener has crashed
-			for(ClipboardInterface listener : listeners)
-				listener.onClipboardListenerCrash();
-			
-			restartClipboardListener();
 		}
 	}
 
-	private void restartClipboardListener() {
-		try {
-			// Pause before reassign clipboard (restart listener)
-			Thread.sleep(DELAY); 
+	private synchronized void recordCapture() {
+		long now = System.nanoTime();
+		if (captureCount == 0)
+			firstCaptureTime = now;
 
-			// Assign the new content to clipboard
-			Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-			regainClipboardOwnership(clipboard);
+		lastCaptureTime = now;
+		captureCount++;
+	}
 
-		} catch (Exception deadException) {
-			MainWindow.consoleLog("Unable to restart clipboard listener." + 
-				" Please restart application and try again!");
-			System.out.println(deadException);
+	private void restartClipboardListener(Clipboard clipboard) {
+		// Assign the new content to clipboard
+		if (regainClipboardOwnership(clipboard) != null)
+			return;
 
-			// Show dialog to prompt user to restart program
-			for(ClipboardInterface listener : listeners)
-				listener.onClipboardListenerDied();
-		}
+		LogUtil.log("Unable to restart clipboard listener." + 
+			" Please restart application and try again!");
+
+		// Show dialog to prompt user to restart program
+		for(ClipboardInterface listener : listeners)
+			listener.onClipboardListenerDied();
 	}
 
-	private void regainClipboardOwnership(Clipboard clipboard) {
-		Transferable trans = clipboard.getContents(this);
-		clipboard.setContents(trans, this);
+	/**
+	 * Take back clipboard ownership by assigning the current contents to 
+	 * clipboard. Retries with a growing delay while another program holds 
+	 * the clipboard open instead of failing straight away.
+	 * 
+	 * @param clipboard System clipboard
+	 * @return Contents assigned to the clipboard or null if still unavailable
+	 */
+	private Transferable regainClipboardOwnership(Clipboard clipboard) {
+		int retryDelay = RETRY_DELAY;
+		while (isListening) {
+			try {
+				Transferable trans = clipboard.getContents(this);
+				clipboard.setContents(trans, this);
+				return trans;
+
+			} catch (IllegalStateException e) {
+				if (retryDelay > MAX_RETRY_DELAY) {
+					System.out.println(e);
+					return null;
+				}
+			}
+
+			try {
+				Thread.sleep(retryDelay);
+			} catch (InterruptedException e) {
+				return null;
+			}
+			retryDelay *= 2;
+		}
+
+		return null;
 	}
 }
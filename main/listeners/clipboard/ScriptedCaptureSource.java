@@ -0,0 +1,173 @@
+package main.listeners.clipboard;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import main.utility.CaptureJournal;
+
+/**
+ * <p>
+ * Stand-in for the system clipboard that replays a list of captures at a
+ * fixed rate, so capturing can be tested and load tested without a
+ * display. Captures come from a recorded capture journal, a text file
+ * with one capture per line, or are made up with a given size.
+ * </p>
+ *
+ * <p>
+ * Like <code>ClipboardListener</code>, a capture equal to the previous
+ * one is not passed on. Latency of each capture is measured from when it
+ * was due until listeners return, so it includes listeners blocking when
+ * they cannot keep up.
+ * </p>
+ */
+public class ScriptedCaptureSource extends Thread implements CaptureSource {
+	private final List<String> captures;
+	private final double rate;
+	private List<ClipboardInterface> listeners = new ArrayList<ClipboardInterface>();
+
+	private volatile boolean isCapturing = true;
+	private Runnable onFinished = null;
+
+	// Results, only read once thread has finished
+	private int captureCount = 0;
+	private long[] latencies;
+	private long duration = 0;
+
+	/**
+	 * @param captures Captures in the order they are replayed
+	 * @param rate Captures per second, 0 to replay as fast as listeners
+	 * handle them
+	 */
+	public ScriptedCaptureSource(List<String> captures, double rate) {
+		super("Scripted Capture Source");
+		setDaemon(true);
+		this.captures = captures;
+		this.rate = rate;
+		this.latencies = new long[captures.size()];
+	}
+
+	/**
+	 * Replay a capture journal, or a text file with one capture per line.
+	 *
+	 * @param scriptPath File ending with ".journal" or a text file
+	 * @param rate Captures per second, 0 for as fast as possible
+	 * @throws IOException if file cannot be read
+	 */
+	public static ScriptedCaptureSource fromFile(Path scriptPath, double rate) throws IOException {
+		List<String> captures = scriptPath.toString().endsWith(".journal")
+			? CaptureJournal.readCaptures(scriptPath)
+			: Files.readAllLines(scriptPath, StandardCharsets.UTF_8);
+		return new ScriptedCaptureSource(captures, rate);
+	}
+
+	/**
+	 * Replay <code>count</code> made up captures of at least
+	 * <code>size</code> characters each, every capture different from the
+	 * previous one.
+	 */
+	public static ScriptedCaptureSource synthetic(int count, int size, double rate) {
+		List<String> captures = new ArrayList<String>(count);
+		StringBuilder capture = new StringBuilder(size);
+		for (int i = 0; i < count; i++) {
+			capture.setLength(0);
+			capture.append("Capture ").append(i + 1).append(' ');
+			while (capture.length() < size)
+				capture.append((char) ('a' + capture.length() % 26));
+			captures.add(capture.toString());
+		}
+		return new ScriptedCaptureSource(captures, rate);
+	}
+
+	@Override
+	public void addClipBoardListener(ClipboardInterface listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param onFinished Called on the source thread after the last capture
+	 * is handled or capture was stopped
+	 */
+	public void setOnFinished(Runnable onFinished) {
+		this.onFinished = onFinished;
+	}
+
+	@Override
+	public void startCapture() {
+		start();
+	}
+
+	@Override
+	public void stopCapture() {
+		isCapturing = false;
+		LockSupport.unpark(this);
+	}
+
+	public void run() {
+		long period = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+		long startTime = System.nanoTime();
+		String previousCapture = null;
+
+		for (int i = 0; i < captures.size() && isCapturing; i++) {
+			// Wait until capture is due, late captures are sent straight away
+			long dueTime = startTime + i * period;
+			long delay;
+			while (isCapturing && (delay = dueTime - System.nanoTime()) > 0)
+				LockSupport.parkNanos(delay);
+			if (!isCapturing)
+				break;
+
+			String capture = captures.get(i);
+			if (capture.equals(previousCapture))
+				continue;
+			previousCapture = capture;
+
+			// Without a rate, captures are only due once the previous one is handled
+			long sendTime = period > 0 ? dueTime : System.nanoTime();
+			for (ClipboardInterface listener : listeners)
+				listener.onClipboardUpdate(capture);
+
+			latencies[captureCount++] = System.nanoTime() - sendTime;
+		}
+
+		duration = System.nanoTime() - startTime;
+		latencies = Arrays.copyOf(latencies, captureCount);
+
+		if (onFinished != null)
+			onFinished.run();
+	}
+
+	/**
+	 * Throughput and latency of the replay, e.g "1000 captures in 1012 ms
+	 * (988.1 per second), latency p50 0.01 ms, p99 0.05 ms, max 1.20 ms".
+	 * Only complete once the source has finished.
+	 */
+	@Override
+	public String getSummary() {
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+
+		double seconds = duration / 1e9;
+		return captureCount + " captures in " + TimeUnit.NANOSECONDS.toMillis(duration) + " ms ("
+			+ String.format("%.1f", seconds > 0 ? captureCount / seconds : 0) + " per second), latency p50 "
+			+ formatMillis(percentile(sorted, 0.50)) + " ms, p99 "
+			+ formatMillis(percentile(sorted, 0.99)) + " ms, max "
+			+ formatMillis(sorted.length == 0 ? 0 : sorted[sorted.length - 1]) + " ms";
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0)
+			return 0;
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * fraction) - 1)];
+	}
+
+	private static String formatMillis(long nanos) {
+		return String.format("%.2f", nanos / 1e6);
+	}
+}
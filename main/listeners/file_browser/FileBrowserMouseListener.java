@@ -35,6 +35,8 @@ public class FileBrowserMouseListener implements MouseListener {
         fileBrowserTree.setSelectionRow(selectedRow);
 
         DefaultMutableTreeNode node = (DefaultMutableTreeNode) fileBrowserTree.getLastSelectedPathComponent();
+        // "Loading..." shown while a folder is being listed is not a file
+        if (!(node.getUserObject() instanceof File)) return;
         File file = (File) node.getUserObject();
 
         if (e.getClickCount() == 1) {
@@ -43,6 +45,8 @@ public class FileBrowserMouseListener implements MouseListener {
                 uiUtil.handleFileBrowserFolderClick(file.getAbsolutePath());
 
             } else if (file.isFile()) {
+                // Usually already shown once selected, shows it again if 
+                // file viewer was cleared
                 uiUtil.handleFileBrowserFileClick(file);
             }
 
@@ -68,6 +72,7 @@ public class FileBrowserMouseListener implements MouseListener {
             fileBrowserTree.setSelectionRow(selectedRow);
 
             DefaultMutableTreeNode node = (DefaultMutableTreeNode) fileBrowserTree.getLastSelectedPathComponent();
+            if (!(node.getUserObject() instanceof File)) return;
             ComplierState.selectedFile = (File) node.getUserObject();
 
             fileBrowserPopupMenu.show(e.getComponent(), e.getX(), e.getY());
@@ -0,0 +1,33 @@
+package main.listeners.file_browser;
+
+import java.io.File;
+
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreePath;
+
+import main.utility.UiUtil;
+
+/**
+ * Show file selected in fileBrowser, whether it was clicked or selected
+ * with the arrow keys.
+ */
+public class FileBrowserSelectionListener implements TreeSelectionListener {
+    private UiUtil uiUtil;
+
+    public FileBrowserSelectionListener(UiUtil uiUtil) {
+        this.uiUtil = uiUtil;
+    }
+
+    @Override
+    public void valueChanged(TreeSelectionEvent e) {
+        TreePath path = e.getNewLeadSelectionPath();
+        if (path == null) return;
+
+        DefaultMutableTreeNode node = (DefaultMutableTreeNode) path.getLastPathComponent();
+        // Folders are opened by clicking, "Loading..." is not a file
+        if (node.getAllowsChildren() || !(node.getUserObject() instanceof File)) return;
+        uiUtil.handleFileBrowserFileClick((File) node.getUserObject());
+    }
+}
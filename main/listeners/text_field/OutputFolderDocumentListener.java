@@ -1,25 +1,49 @@
 package main.listeners.text_field;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
 import main.utility.UiUtil;
 
 public class OutputFolderDocumentListener implements DocumentListener {
+    // Wait for typing to pause before listing the typed folder
+    private final int UPDATE_DELAY = 300; // in milliseconds
+
     UiUtil uiUtil;
+    private Timer timer;
 
     public OutputFolderDocumentListener(UiUtil uiUtil) {
         this.uiUtil = uiUtil;
+
+        timer = new Timer(UPDATE_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                uiUtil.updateFileBrowser();
+            }
+        });
+        timer.setRepeats(false);
     }
 
     @Override
     public void insertUpdate(DocumentEvent ev) {
-        uiUtil.updateFileBrowser();
+        // Whole path set at once (e.g folder chosen, clicked or pasted)
+        // is shown straight away
+        if (ev.getLength() == ev.getDocument().getLength()) {
+            timer.stop();
+            uiUtil.updateFileBrowser();
+            return;
+        }
+
+        timer.restart();
     }
 
     @Override
     public void removeUpdate(DocumentEvent ev) {
-        uiUtil.updateFileBrowser();
+        timer.restart();
     }
 
     @Override
@@ -0,0 +1,67 @@
+package main.misc;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue to hand items from exactly one producer thread 
+ * to exactly one consumer thread. Used to pass clipboard captures from the
+ * clipboard listener thread to the Swing event dispatch thread.
+ */
+public class CaptureQueue<E> {
+    private final Object[] buffer;
+    private final int mask;
+
+    // Only the consumer moves head and only the producer moves tail
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * @param capacity Maximum number of queued items, rounded up to a 
+     * power of two
+     */
+    public CaptureQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        buffer = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds item to the end of the queue. Must only be called by the 
+     * producer thread.
+     * 
+     * @param item Item to be queued
+     * @return false if the queue is full and item was not added
+     */
+    public boolean offer(E item) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() == buffer.length)
+            return false;
+
+        buffer[(int) currentTail & mask] = item;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Moves all queued items into <code>items</code> in the order they were
+     * added. Must only be called by the consumer thread.
+     * 
+     * @param items List to add queued items to
+     * @return Number of items drained
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(List<E> items) {
+        long currentHead = head.get();
+        long currentTail = tail.get();
+
+        for (long i = currentHead; i < currentTail; i++) {
+            int index = (int) i & mask;
+            items.add((E) buffer[index]);
+            buffer[index] = null;
+        }
+
+        head.lazySet(currentTail);
+        return (int) (currentTail - currentHead);
+    }
+}
@@ -1,10 +1,15 @@
 package main.misc;
 
 import java.io.File;
-import java.math.BigInteger;
 import java.util.Comparator;
-import java.util.regex.Pattern;
 
+/**
+ * Natural order of file names, so "capture 2" comes before "capture 10".
+ * Names are compared segment by segment, where a segment is a run of
+ * digits or a run of other characters. Walks the names in place without
+ * splitting or parsing numbers, as it is called for every comparison of
+ * a folder sort.
+ */
 public final class FileNameComparator implements Comparator<File> {
     private boolean ascending;
 
@@ -12,46 +17,113 @@ public final class FileNameComparator implements Comparator<File> {
         this.ascending = ascending;
     }
 
-    private static final Pattern NUMBERS = 
-        Pattern.compile("(?<=\\D)(?=\\d)|(?<=\\d)(?=\\D)");
-
-    @Override 
+    @Override
     public final int compare(File file1, File file2) {
         // Convert file to their file name string:
-        String o1 = file1.getName();
-        String o2 = file2.getName();
+        return compareNames(file1.getName(), file2.getName(), ascending);
+    }
 
+    /**
+     * Compare file names in natural order.
+     *
+     * @param o1 First file name
+     * @param o2 Second file name
+     * @param ascending false to reverse the order of differing segments
+     * @return Negative, zero or positive as <code>o1</code> is ordered
+     * before, same as or after <code>o2</code>
+     */
+    public static int compareNames(String o1, String o2, boolean ascending) {
         // Optional "NULLS LAST" semantics:
         if (o1 == null || o2 == null)
             return o1 == null ? o2 == null ? 0 : -1 : 1;
 
-        // Splitting both input strings by the above patterns
-        String[] split1 = NUMBERS.split(o1);
-        String[] split2 = NUMBERS.split(o2);
-        for (int i = 0; i < Math.min(split1.length, split2.length); i++) {
-            char c1 = split1[i].charAt(0);
-            char c2 = split2[i].charAt(0);
+        int index1 = 0;
+        int index2 = 0;
+        while (index1 < o1.length() && index2 < o2.length()) {
+            boolean isNumber1 = isDigit(o1.charAt(index1));
+            boolean isNumber2 = isDigit(o2.charAt(index2));
+            int end1 = findSegmentEnd(o1, index1, isNumber1);
+            int end2 = findSegmentEnd(o2, index2, isNumber2);
             int cmp = 0;
 
-            // If both segments start with a digit, sort them numerically using 
-            // BigInteger to stay safe
-            if (c1 >= '0' && c1 <= '9' && c2 >= '0' && c2 <= '9')
-                cmp = ascending ? new BigInteger(split1[i]).compareTo(new BigInteger(split2[i])) 
-                    : new BigInteger(split2[i]).compareTo(new BigInteger(split1[i]));
+            // If both segments are numbers, sort them numerically
+            if (isNumber1 && isNumber2)
+                cmp = compareNumbers(o1, index1, end1, o2, index2, end2);
 
-            // If we haven't sorted numerically before, or if numeric sorting yielded 
+            // If we haven't sorted numerically before, or if numeric sorting yielded
             // equality (e.g 007 and 7) then sort lexicographically
             if (cmp == 0)
-                cmp = ascending ? split1[i].compareTo(split2[i]) 
-                    : split2[i].compareTo(split1[i]);
-            
+                cmp = compareSegments(o1, index1, end1, o2, index2, end2);
+
             // Abort once some prefix has unequal ordering
             if (cmp != 0)
-                return cmp;
+                return ascending ? cmp : -cmp;
+
+            index1 = end1;
+            index2 = end2;
         }
 
-        // If we reach this, then both strings have equally ordered prefixes, but 
+        // If we reach this, then both strings have equally ordered prefixes, but
         // maybe one string is longer than the other (i.e. has more segments)
-        return split1.length - split2.length;
+        return countSegments(o1, index1) - countSegments(o2, index2);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int findSegmentEnd(String name, int start, boolean isNumber) {
+        int end = start + 1;
+        while (end < name.length() && isDigit(name.charAt(end)) == isNumber)
+            end++;
+        return end;
+    }
+
+    private static int countSegments(String name, int start) {
+        int count = 0;
+        while (start < name.length()) {
+            start = findSegmentEnd(name, start, isDigit(name.charAt(start)));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Compare digit runs by value, without leading zeros a longer run is a
+     * larger number, otherwise the first differing digit decides.
+     */
+    private static int compareNumbers(String o1, int start1, int end1, String o2, int start2, int end2) {
+        while (start1 < end1 - 1 && o1.charAt(start1) == '0')
+            start1++;
+        while (start2 < end2 - 1 && o2.charAt(start2) == '0')
+            start2++;
+
+        int length1 = end1 - start1;
+        int length2 = end2 - start2;
+        if (length1 != length2)
+            return length1 - length2;
+
+        for (int i = 0; i < length1; i++) {
+            char c1 = o1.charAt(start1 + i);
+            char c2 = o2.charAt(start2 + i);
+            if (c1 != c2)
+                return c1 - c2;
+        }
+        return 0;
+    }
+
+    // Same as String.compareTo on the two segments
+    private static int compareSegments(String o1, int start1, int end1, String o2, int start2, int end2) {
+        int length1 = end1 - start1;
+        int length2 = end2 - start2;
+        int length = Math.min(length1, length2);
+
+        for (int i = 0; i < length; i++) {
+            char c1 = o1.charAt(start1 + i);
+            char c2 = o2.charAt(start2 + i);
+            if (c1 != c2)
+                return c1 - c2;
+        }
+        return length1 - length2;
     }
 }
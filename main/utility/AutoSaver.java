@@ -0,0 +1,191 @@
+package main.utility;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import main.ComplierState;
+import main.MainWindow;
+
+/**
+ * <p>
+ * Autosaves <code>currentFileTextArea</code> to the file that would be 
+ * saved manually. Captures are coalesced and written at most once every 
+ * <code>ComplierState.autosaveInterval</code> or once every 
+ * <code>ComplierState.autosaveCaptures</code> captures.
+ * </p>
+ * 
+ * <p>
+ * Only text added since the last autosave is appended to the file. The 
+ * whole file is rewritten if earlier text was edited or the file name 
+ * changed. Existing files that were not autosaved are never overwritten.
+ * </p>
+ */
+public class AutoSaver implements DocumentListener {
+    MainWindow mainWindow;
+    UiUtil uiUtil;
+
+    private Timer timer;
+    private int pendingCaptures = 0;
+
+    // File being autosaved and how much of the text it holds
+    private File targetFile = null;
+    private int savedLength = 0;
+    private FileUtil.AppendedText savedText = new FileUtil.AppendedText();
+    private boolean needsRewrite = false;
+
+    private File skippedFile = null;
+
+    public AutoSaver(MainWindow mainWindow, UiUtil uiUtil) {
+        this.mainWindow = mainWindow;
+        this.uiUtil = uiUtil;
+
+        timer = new Timer(ComplierState.autosaveInterval, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        timer.setRepeats(false);
+
+        mainWindow.currentFileTextArea.getDocument().addDocumentListener(this);
+    }
+
+    /**
+     * Called after captures are added to <code>currentFileTextArea</code>.
+     * Autosave straight away once enough captures are pending, otherwise 
+     * autosave when interval is up.
+     * 
+     * @param captureCount Number of new captures
+     */
+    public void onCaptures(int captureCount) {
+        if (!ComplierState.autosave)
+            return;
+
+        pendingCaptures += captureCount;
+        if (pendingCaptures >= ComplierState.autosaveCaptures) {
+            flush();
+
+        } else if (!timer.isRunning()) {
+            timer.setInitialDelay(ComplierState.autosaveInterval);
+            timer.start();
+        }
+    }
+
+    /**
+     * @param file File to check
+     * @return true if <code>file</code> is the file being autosaved
+     */
+    public boolean isAutosaveFile(File file) {
+        return file.equals(targetFile);
+    }
+
+    /**
+     * Write text added since last autosave to file in the background.
+     */
+    public void flush() {
+        timer.stop();
+        pendingCaptures = 0;
+
+        // Nothing captured yet, e.g closing right after a manual save. An 
+        // empty file would take the next file number
+        Document document = mainWindow.currentFileTextArea.getDocument();
+        if (document.getLength() == 0)
+            return;
+
+        File fileToSave = uiUtil.getFileToSave();
+        if (fileToSave == null)
+            return;
+
+        if (!fileToSave.equals(targetFile)) {
+            // Never overwrite a file that was not autosaved
+            if (fileToSave.exists()) {
+                if (!fileToSave.equals(skippedFile)) {
+                    skippedFile = fileToSave;
+                    MainWindow.consoleLog("Autosave skipped, file already exists: " + fileToSave.getAbsolutePath());
+                }
+                return;
+            }
+
+            targetFile = fileToSave;
+            needsRewrite = true;
+        }
+
+        int length = document.getLength();
+        if (length == savedLength && !needsRewrite)
+            return;
+
+        try {
+            final String filePath = targetFile.getAbsolutePath();
+            String newText = document.getText(savedLength, length - savedLength);
+
+            // Failed writes are rewritten whole, so state moves on straight away
+            final FileUtil.AppendedText.Write write = needsRewrite || !savedText.canAdd(newText)
+                ? savedText.rewrite(document.getText(0, length))
+                : savedText.add(newText);
+            savedText.apply(write);
+
+            if (write.hasText()) {
+                TaskUtil.runInBackground(
+                    () -> write.writeTo(filePath),
+                    (saveSuccess) -> onAutosaveDone(filePath, saveSuccess),
+                    (error) -> onAutosaveDone(filePath, false));
+            }
+
+            savedLength = length;
+            needsRewrite = false;
+
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void onAutosaveDone(String filePath, boolean saveSuccess) {
+        // Rewrite whole file next time as it may be incomplete
+        if (!saveSuccess) {
+            needsRewrite = true;
+            return;
+        }
+
+        // Show new file, or move it when sorted by date
+        File savedFile = new File(filePath);
+        uiUtil.invalidatePreview(savedFile);
+        mainWindow.fileBrowser.addFile(savedFile);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        // Text inserted before autosaved text, whole file has to be rewritten
+        if (e.getOffset() < savedLength) {
+            savedLength += e.getLength();
+            needsRewrite = true;
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (e.getDocument().getLength() == 0) {
+            // Text cleared after manual save, start autosaving next file
+            timer.stop();
+            pendingCaptures = 0;
+            targetFile = null;
+            savedLength = 0;
+            savedText = new FileUtil.AppendedText();
+            needsRewrite = false;
+
+        } else if (e.getOffset() < savedLength) {
+            savedLength = Math.max(e.getOffset(), savedLength - e.getLength());
+            needsRewrite = true;
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+}
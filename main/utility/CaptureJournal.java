@@ -0,0 +1,401 @@
+package main.utility;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+
+/**
+ * <p>
+ * Append-only journal of captured clipboard texts that have not been saved 
+ * yet, used to recover the current text file after a crash.
+ * </p>
+ * 
+ * <p>
+ * Each record holds a type, sequence number and UTF-8 text. Captures are 
+ * written by a background thread which writes and forces all records
+ * queued since its last write together (group commit). Saves are recorded 
+ * as the range of captures they hold, as saves may finish out of order. 
+ * Once all captures are saved, the journal is truncated back to empty.
+ * </p>
+ */
+public class CaptureJournal {
+    private final static byte CAPTURE_RECORD = 1;
+    private final static byte SAVED_RECORD = 2;
+    private final static int HEADER_SIZE = 1 + 8 + 4; // Type, sequence and text length
+
+    private final Path journalPath;
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    private final Object lock = new Object();
+    private List<Record> pendingRecords = new ArrayList<Record>();
+    private long lastSequence = 0;
+    private boolean isClosed = false;
+
+    private List<Long> replayedSequences = new ArrayList<Long>();
+
+    // Captures written to journal and not saved yet, only used by writer
+    private TreeSet<Long> unsavedSequences = new TreeSet<Long>();
+
+    private Thread writerThread;
+
+    private static class Record {
+        final byte type;
+        final long sequence;
+        final long firstSequence; // First capture of a saved range
+        final String text;
+
+        Record(byte type, long sequence, long firstSequence, String text) {
+            this.type = type;
+            this.sequence = sequence;
+            this.firstSequence = firstSequence;
+            this.text = text;
+        }
+    }
+
+    public CaptureJournal(Path journalPath) {
+        this.journalPath = journalPath;
+    }
+
+    /**
+     * Default journal location in user home folder
+     */
+    public static Path getDefaultPath() {
+        return Paths.get(System.getProperty("user.home"), 
+            ".clipboard_to_txt", "capture.journal");
+    }
+
+    /**
+     * Default journal of the headless mode, separate so it can run next
+     * to the window
+     */
+    public static Path getDefaultHeadlessPath() {
+        return Paths.get(System.getProperty("user.home"), 
+            ".clipboard_to_txt", "headless.journal");
+    }
+
+    /**
+     * Reads journal left by previous session to find its unsaved captures, 
+     * then opens journal for new captures. Must be called once before any 
+     * captures are appended.
+     * 
+     * <p>
+     * Journal is locked while open. If another running instance holds it,
+     * nothing is recovered and new captures are not journaled.
+     * </p>
+     * 
+     * @return Unsaved captures in the order they were captured
+     */
+    public List<String> replay() {
+        Map<Long, String> unsavedCaptures = new LinkedHashMap<Long, String>();
+        if (!open())
+            return new ArrayList<String>();
+
+        try {
+            // Read through the locked channel, not closed as it stays open
+            channel.position(0);
+            InputStream channelStream = Channels.newInputStream(channel);
+            long validLength = readRecords(new DataInputStream(new BufferedInputStream(channelStream, 65536)), 
+                channel.size(), unsavedCaptures, true);
+
+            // Drop incomplete tail, records appended after it could not be read
+            channel.truncate(validLength);
+            channel.position(validLength);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            LogUtil.log("Error reading capture journal: " + journalPath);
+        }
+
+        unsavedSequences.addAll(unsavedCaptures.keySet());
+        replayedSequences = new ArrayList<Long>(unsavedCaptures.keySet());
+        startWriter();
+        return new ArrayList<String>(unsavedCaptures.values());
+    }
+
+    // Returns length of the complete records at the start of the journal
+    private long readRecords(DataInputStream input, long size, Map<Long, String> unsavedCaptures,
+            boolean isDroppingSaved) throws IOException {
+        long position = 0;
+        while (true) {
+            byte type;
+            long sequence;
+            byte[] bytes;
+            try {
+                type = input.readByte();
+                sequence = input.readLong();
+
+                // Length of an incomplete record may be garbage, treat it as the end too
+                int length = input.readInt();
+                if (length < 0 || length > size - position - HEADER_SIZE)
+                    return position;
+
+                bytes = new byte[length];
+                input.readFully(bytes);
+
+            } catch (EOFException e) {
+                // Last record may be incomplete if program crashed while writing
+                return position;
+            }
+            position += HEADER_SIZE + bytes.length;
+
+            lastSequence = Math.max(lastSequence, sequence);
+            if (type == CAPTURE_RECORD) {
+                unsavedCaptures.put(sequence, new String(bytes, StandardCharsets.UTF_8));
+
+            } else if (type == SAVED_RECORD && isDroppingSaved) {
+                // Journals written before saved ranges only hold the last capture
+                long firstSequence = bytes.length == 8 ? ByteBuffer.wrap(bytes).getLong() : 0;
+                unsavedCaptures.keySet().removeIf(
+                    captureSequence -> captureSequence >= firstSequence && captureSequence <= sequence);
+            }
+        }
+    }
+
+    /**
+     * Reads every capture still in a journal, saved or not, e.g to replay
+     * a recorded session. Journal is not opened for new captures.
+     * 
+     * @param journalPath Journal to read
+     * @return Captures in the order they were captured
+     * @throws IOException if journal cannot be read
+     */
+    public static List<String> readCaptures(Path journalPath) throws IOException {
+        Map<Long, String> captures = new LinkedHashMap<Long, String>();
+
+        InputStream fileStream = Files.newInputStream(journalPath);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(fileStream, 65536));
+        try {
+            new CaptureJournal(journalPath).readRecords(input, Files.size(journalPath), captures, false);
+        } finally {
+            input.close();
+        }
+
+        return new ArrayList<String>(captures.values());
+    }
+
+    /**
+     * Open and lock journal.
+     * 
+     * @return false if journal cannot be opened or is used by another
+     * instance
+     */
+    private boolean open() {
+        try {
+            Files.createDirectories(journalPath.getParent());
+            channel = FileChannel.open(journalPath, 
+                StandardOpenOption.CREATE, 
+                StandardOpenOption.READ, 
+                StandardOpenOption.WRITE);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            LogUtil.log("Unable to open capture journal, unsaved text will not be recovered after a crash");
+            return false;
+        }
+
+        try {
+            fileLock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            fileLock = null;
+        }
+
+        if (fileLock == null) {
+            LogUtil.log("Capture journal is used by another instance, unsaved text will not be recovered after a crash: " 
+                + journalPath);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+            return false;
+        }
+
+        return true;
+    }
+
+    private void startWriter() {
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        }, "Capture Journal");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue capture to be written to journal.
+     * 
+     * @param text Captured text
+     * @return Sequence number of capture
+     */
+    public long append(String text) {
+        synchronized (lock) {
+            lastSequence++;
+            queue(new Record(CAPTURE_RECORD, lastSequence, 0, text));
+            return lastSequence;
+        }
+    }
+
+    /**
+     * @return Sequence numbers of captures returned by <code>replay</code>,
+     * in the same order
+     */
+    public List<Long> getReplayedSequences() {
+        return replayedSequences;
+    }
+
+    /**
+     * @return Sequence number of latest capture
+     */
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Mark all captures up to <code>sequence</code> as saved so they will
+     * not be recovered.
+     * 
+     * @param sequence Sequence number of last saved capture
+     */
+    public void markSaved(long sequence) {
+        markSaved(0, sequence);
+    }
+
+    /**
+     * Mark captures from <code>firstSequence</code> to <code>sequence</code>
+     * as saved so they will not be recovered. Captures outside the range
+     * are kept, e.g those of an earlier save that failed.
+     * 
+     * @param firstSequence Sequence number of first saved capture
+     * @param sequence Sequence number of last saved capture
+     */
+    public void markSaved(long firstSequence, long sequence) {
+        synchronized (lock) {
+            queue(new Record(SAVED_RECORD, sequence, firstSequence, ""));
+        }
+    }
+
+    /**
+     * Write all queued records and stop writer thread.
+     */
+    public void close() {
+        synchronized (lock) {
+            isClosed = true;
+            lock.notifyAll();
+        }
+
+        if (writerThread == null)
+            return;
+
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void queue(Record record) {
+        if (isClosed || writerThread == null)
+            return;
+
+        pendingRecords.add(record);
+        lock.notifyAll();
+    }
+
+    private void writeRecords() {
+        while (true) {
+            List<Record> records;
+            synchronized (lock) {
+                while (pendingRecords.isEmpty() && !isClosed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        isClosed = true;
+                    }
+                }
+
+                if (pendingRecords.isEmpty())
+                    break;
+
+                records = pendingRecords;
+                pendingRecords = new ArrayList<Record>();
+            }
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream output = new DataOutputStream(bytes);
+                boolean isTruncating = false;
+
+                for (Record record : records) {
+                    byte[] payload;
+                    if (record.type == CAPTURE_RECORD) {
+                        unsavedSequences.add(record.sequence);
+                        payload = record.text.getBytes(StandardCharsets.UTF_8);
+
+                    } else {
+                        unsavedSequences.subSet(record.firstSequence, true, record.sequence, true).clear();
+
+                        // Everything captured so far is saved, start journal afresh
+                        if (unsavedSequences.isEmpty()) {
+                            bytes.reset();
+                            isTruncating = true;
+                            continue;
+                        }
+                        payload = ByteBuffer.allocate(8).putLong(record.firstSequence).array();
+                    }
+
+                    output.writeByte(record.type);
+                    output.writeLong(record.sequence);
+                    output.writeInt(payload.length);
+                    output.write(payload);
+                }
+
+                if (isTruncating) {
+                    channel.truncate(0);
+                    channel.position(0);
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(false);
+
+            } catch (IOException e) {
+                e.printStackTrace();
+                LogUtil.log("Error writing capture journal: " + journalPath);
+            }
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package main.utility;
 
 import java.awt.Component;
+import java.awt.GridLayout;
 import java.io.File;
 
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+
+import main.ComplierState;
 
 public class DialogUtil {
 
     public static void showClipboardListenerCrashDialog(Component context) {
         JOptionPane.showMessageDialog(
                 context,
-                "Clipboard Listener has crashed. Please try again and PAUSE in between copy operations.\n" 
+                "Clipboard Listener has crashed as the clipboard stayed busy. Please try again.\n" 
                     + "If error still persists, the program you are copying from may not support copy operations",
                 "Crash",
                 JOptionPane.WARNING_MESSAGE);
@@ -81,4 +90,61 @@ public class DialogUtil {
 
         return renamedString;
     }
+
+    /**
+     * Let user choose how saved files are written and forced to disk, and 
+     * how often autosave writes. Chosen options are used from the next save and kept as preferences.
+     * 
+     * @return true if options were changed
+     */
+    public static boolean showSaveOptionsDialog(Component context) {
+        JCheckBox atomicSaveCheckBox = new JCheckBox(
+            "Write to a temporary file first, so a crash never leaves a half written file", 
+            ComplierState.atomicSave);
+
+        // In order of FileUtil.SYNC_ policies
+        String[] durabilityNames = {
+            "Never (fastest, last saves may be lost if computer crashes)",
+            "On every save (safest)",
+            "In batches of saves" };
+        JComboBox<String> durabilityComboBox = new JComboBox<String>(durabilityNames);
+        durabilityComboBox.setSelectedIndex(ComplierState.saveDurability);
+
+        JSpinner batchSizeSpinner = new JSpinner(
+            new SpinnerNumberModel(ComplierState.syncBatchSize, 1, 1000, 1));
+
+        // Same lower bounds as loaded preferences
+        JSpinner autosaveIntervalSpinner = new JSpinner(new SpinnerNumberModel(
+            Math.min(ComplierState.autosaveInterval, 600000), 100, 600000, 100));
+        JSpinner autosaveCapturesSpinner = new JSpinner(new SpinnerNumberModel(
+            Math.min(ComplierState.autosaveCaptures, 1000), 1, 1000, 1));
+
+        JPanel optionsPanel = new JPanel(new GridLayout(0, 1, 0, 5));
+        optionsPanel.add(atomicSaveCheckBox);
+        optionsPanel.add(new JLabel("Force saved files to disk:"));
+        optionsPanel.add(durabilityComboBox);
+        optionsPanel.add(new JLabel("Saves in a batch:"));
+        optionsPanel.add(batchSizeSpinner);
+        optionsPanel.add(new JLabel("Autosave at most every (ms):"));
+        optionsPanel.add(autosaveIntervalSpinner);
+        optionsPanel.add(new JLabel("Or once this many captures are pending:"));
+        optionsPanel.add(autosaveCapturesSpinner);
+
+        int confirmDialogResult = JOptionPane.showConfirmDialog(
+                context,
+                optionsPanel,
+                "Save Options",
+                JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE);
+
+        if (confirmDialogResult != JOptionPane.OK_OPTION)
+            return false;
+
+        ComplierState.atomicSave = atomicSaveCheckBox.isSelected();
+        ComplierState.saveDurability = durabilityComboBox.getSelectedIndex();
+        ComplierState.syncBatchSize = (Integer) batchSizeSpinner.getValue();
+        ComplierState.autosaveInterval = (Integer) autosaveIntervalSpinner.getValue();
+        ComplierState.autosaveCaptures = (Integer) autosaveCapturesSpinner.getValue();
+        return true;
+    }
 }
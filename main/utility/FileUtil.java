@@ -2,23 +2,57 @@ package main.utility;
 
 import java.awt.Desktop;
 import java.awt.Component;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.swing.JFileChooser;
 
-import main.MainWindow;
+import main.ComplierState;
 
 public class FileUtil {
-    private static Desktop desktop = Desktop.getDesktop();
-    private static JFileChooser fileChooser = new JFileChooser();
+    // Durability policies for saved files
+    public final static int SYNC_NONE = 0;
+    public final static int SYNC_ON_SAVE = 1;
+    public final static int SYNC_BATCHED = 2;
+
+    // Created when first used, headless mode never needs them
+    private static Desktop desktop = null;
+    private static JFileChooser fileChooser = null;
+
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    // Saved files not yet forced to disk with SYNC_BATCHED policy
+    private static final List<Path> unsyncedFiles = new ArrayList<Path>();
+
+    // Text files are always written in UTF-8, one reusable encoder per thread
+    private static final ThreadLocal<CharsetEncoder> textEncoder = new ThreadLocal<CharsetEncoder>() {
+        @Override
+        protected CharsetEncoder initialValue() {
+            return StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
 
     public static boolean isTxtFile(File file) {
         String fileName = file.getAbsolutePath();
@@ -27,23 +61,71 @@ public class FileUtil {
         return fileType.equals("txt");
     }
 
-    public static String readTextFile(File selectedFile) {
-        if (!isTxtFile(selectedFile))
-            return "";
+    /**
+     * @return true if <code>file</code> is a temporary file written while
+     * saving atomically
+     */
+    public static boolean isTempFile(File file) {
+        String fileName = file.getName();
+        return fileName.startsWith(".") && fileName.endsWith(".tmp");
+    }
 
-        Path selectedFilePath = Paths.get(selectedFile.getAbsolutePath());
-        try {
-            String content = new String(Files.readAllBytes(selectedFilePath));
-            return content;
+    /**
+     * File name (without .txt) built from its parts, with 
+     * <code>number</code> padded with leading zeros up to 
+     * <code>zeros</code> digits.
+     * 
+     * @param leading Text before number
+     * @param number File number, can be empty
+     * @param zeros Number of digits to pad number to, empty or 0 for none
+     * @param trailing Text after number
+     * @return File name
+     */
+    public static String formatFileName(String leading, String number, String zeros, String trailing) {
+        number = number.trim();
+        String limit = zeros.trim();
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            MainWindow.consoleLog("Error reading file: " + selectedFile);
-            return "";
+        boolean isNumberEmpty = number.isEmpty();
+        boolean isLimitEmpty = limit.equals("");
+        boolean isLimitZero = limit.equals("0");
+
+        if (!isNumberEmpty && !isLimitEmpty && !isLimitZero) {
+            try {
+                int limitInt = Integer.valueOf(limit);
+                int numberInt = Integer.valueOf(number);
+                limit = String.valueOf(limitInt);
+
+                String newFormat = "%0" + limit + "d";
+                number = String.format(newFormat, numberInt);
+
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                LogUtil.log("Error updating file name!");
+            }
         }
+
+        if (number.isEmpty()) {
+            return leading + " " + trailing;
+        } else {
+            return leading + " " + number + " " + trailing;
+        }
+    }
+
+    private static synchronized Desktop getDesktop() {
+        if (desktop == null)
+            desktop = Desktop.getDesktop();
+        return desktop;
+    }
+
+    // Only used on the Swing thread
+    private static JFileChooser getFileChooser() {
+        if (fileChooser == null)
+            fileChooser = new JFileChooser();
+        return fileChooser;
     }
 
     public static String chooseFolder(Component context, File currentDirectory) {
+        JFileChooser fileChooser = getFileChooser();
         fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
         fileChooser.setCurrentDirectory(currentDirectory);
 
@@ -60,24 +142,21 @@ public class FileUtil {
         if (currentDirectory == null || !currentDirectory.exists())
             return;
         try {
-            desktop.open(currentDirectory);
+            getDesktop().open(currentDirectory);
         } catch (IOException e1) {
-            System.out.println("Error opening directory: " + currentDirectory.getAbsolutePath());
-            MainWindow.consoleLog("Error opening directory: " + currentDirectory.getAbsolutePath());
+            LogUtil.log("Error opening directory: " + currentDirectory.getAbsolutePath());
         }
     }
 
     public static void open(File selectedFile, boolean openNotepadPlusPlus) {
         if (selectedFile == null || !selectedFile.exists()) {
-            System.out.println("Please select a file to open!");
-            MainWindow.consoleLog("Please select a file to open!");
+            LogUtil.log("Please select a file to open!");
             return;
         }
 
         String fileName = selectedFile.getAbsolutePath();
         if (!isTxtFile(selectedFile)) {
-            System.out.println("Only allowed to open text (.txt) files!");
-            MainWindow.consoleLog("Only allowed to open text (.txt) files!");
+            LogUtil.log("Only allowed to open text (.txt) files!");
             return;
         }
 
@@ -89,24 +168,22 @@ public class FileUtil {
                 processBuilder.command("CMD", "/C", command);
                 processBuilder.start();
 
-                System.out.println("Opening in Notepad++: " + fileName);
-                MainWindow.consoleLog("Opening in Notepad++: " + fileName);
+                LogUtil.log("Opening in Notepad++: " + fileName);
     
             } catch (Exception e) {
                 e.printStackTrace();
-                MainWindow.consoleLog("Error occured while opening: " + fileName);
-                MainWindow.consoleLog("Does your system have notepad++ installed?");
+                LogUtil.log("Error occured while opening: " + fileName);
+                LogUtil.log("Does your system have notepad++ installed?");
             }
 
-        } else if (desktop.isSupported(Desktop.Action.OPEN)) {
+        } else if (getDesktop().isSupported(Desktop.Action.OPEN)) {
             try {
-                desktop.open(selectedFile);
-                System.out.println("Opening: " + fileName);
-                MainWindow.consoleLog("Opening: " + fileName);
+                getDesktop().open(selectedFile);
+                LogUtil.log("Opening: " + fileName);
 
             } catch (IOException err) {
                 err.printStackTrace();
-                MainWindow.consoleLog("Error occured while opening: " + fileName);
+                LogUtil.log("Error occured while opening: " + fileName);
             }
         }
     }
@@ -115,44 +192,388 @@ public class FileUtil {
         Path source = Paths.get(selectedFile.getAbsolutePath());
         try {
             Files.move(source, source.resolveSibling(renamedString), StandardCopyOption.ATOMIC_MOVE);
-            System.out.println("Successfully renamed file to: " + renamedString);
-            MainWindow.consoleLog("Successfully renamed file to: " + renamedString);
+            LogUtil.log("Successfully renamed file to: " + renamedString);
             return true;
 
         } catch (IOException e) {
-            System.out.println("Error renaming file to: " + renamedString);
-            MainWindow.consoleLog("Error renaming file to: " + renamedString);
+            LogUtil.log("Error renaming file to: " + renamedString);
         }
 
         return false;
     }
 
+    /**
+     * Save <code>currentText</code> to file, either atomically through a
+     * temporary file or in place based on <code>ComplierState.atomicSave</code>.
+     * Saved file is forced to disk according to 
+     * <code>ComplierState.saveDurability</code>.
+     * 
+     * @param filePathString Path of file to save to
+     * @param currentText Text to be saved
+     * @return true if file saved successfully
+     */
     public static boolean save(String filePathString, String currentText) {
-        String newLine = System.getProperty("line.separator");
         try {
-            // Write contents to new file
-            FileWriter fileWriter = new FileWriter(filePathString, false);
-            BufferedWriter outWriter = new BufferedWriter(fileWriter);
-            String[] sentences = currentText.split("\\n");
-            for (String line : sentences) {
-                outWriter.write(line);
-                outWriter.write(newLine);
-            }
-            outWriter.close();
-
-            System.out.println("Successfully saved file as: " + filePathString);
-            MainWindow.consoleLog("Successfully saved file as: " + filePathString);
+            Path filePath = Paths.get(filePathString);
+            if (ComplierState.atomicSave)
+                saveAtomically(filePath, currentText);
+            else
+                saveInPlace(filePath, currentText);
+
+            LogUtil.log("Successfully saved file as: " + filePathString);
             return true;
 
-        } catch (FileNotFoundException e) {
-            System.out.println("Error with output folder: " + filePathString);
-            MainWindow.consoleLog("Error with output folder: " + filePathString);
+        } catch (NoSuchFileException | InvalidPathException e) {
+            LogUtil.log("Error with output folder: " + filePathString);
 
         } catch (IOException e) {
             e.printStackTrace();
-            MainWindow.consoleLog("Error writing to file: " + filePathString);
+            LogUtil.log("Error writing to file: " + filePathString);
         }
 
         return false;
     }
+
+    /**
+     * Append <code>newText</code> to the end of an existing file, written the 
+     * same way as <code>save</code>. Only errors are logged as this is used
+     * for frequent autosaves.
+     * 
+     * @param filePathString Path of file to append to
+     * @param newText Text to be appended
+     * @return true if text appended successfully
+     */
+    public static boolean append(String filePathString, String newText) {
+        try {
+            Path filePath = Paths.get(filePathString);
+            FileChannel channel = FileChannel.open(filePath, 
+                StandardOpenOption.WRITE, 
+                StandardOpenOption.APPEND);
+
+            try {
+                writeText(channel, newText);
+                if (ComplierState.saveDurability == SYNC_ON_SAVE)
+                    channel.force(true);
+            } finally {
+                channel.close();
+            }
+
+            syncAfterSave(filePath);
+            return true;
+
+        } catch (NoSuchFileException | InvalidPathException e) {
+            LogUtil.log("Error with output folder: " + filePathString);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            LogUtil.log("Error writing to file: " + filePathString);
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>
+     * Text file that is written a piece at a time, e.g by autosave. Saved 
+     * files have no trailing empty lines, so empty lines at the end of the 
+     * text are only written once more text follows them.
+     * </p>
+     * 
+     * <p>
+     * <code>rewrite</code> and <code>add</code> only plan a write, the
+     * state changes once the write is passed to <code>apply</code>. Callers
+     * can apply it straight away or only once it was written.
+     * </p>
+     */
+    public static class AppendedText {
+        private boolean hasSavedText = false;
+        private int trailingNewLines = 0; // Not written yet
+
+        /**
+         * Write planned by <code>AppendedText</code>.
+         */
+        public static class Write {
+            private final String text; // null if nothing has to be written
+            private final boolean isAppend;
+            private final boolean hasSavedText;
+            private final int trailingNewLines;
+
+            private Write(String text, boolean isAppend, boolean hasSavedText, int trailingNewLines) {
+                this.text = text;
+                this.isAppend = isAppend;
+                this.hasSavedText = hasSavedText;
+                this.trailingNewLines = trailingNewLines;
+            }
+
+            /**
+             * @return true if there is anything to write to file
+             */
+            public boolean hasText() {
+                return text != null;
+            }
+
+            /**
+             * Save or append text to file, may be called from any thread.
+             * 
+             * @return true if written successfully or nothing to write
+             */
+            public boolean writeTo(String filePathString) {
+                if (text == null)
+                    return true;
+                return isAppend ? append(filePathString, text) : save(filePathString, text);
+            }
+        }
+
+        /**
+         * Save whole <code>text</code>, e.g the first time or after earlier 
+         * text was edited.
+         */
+        public Write rewrite(String text) {
+            int newTrailingNewLines = countTrailingNewLines(text);
+            return new Write(text, false, newTrailingNewLines < text.length(), newTrailingNewLines);
+        }
+
+        /**
+         * @return true if <code>newText</code> can be added to file without
+         * rewriting it, which needs it to start on a new line
+         */
+        public boolean canAdd(String newText) {
+            return !hasSavedText || trailingNewLines > 0 || newText.startsWith("\n");
+        }
+
+        /**
+         * Add <code>newText</code> after the text so far. Nothing is written
+         * while text so far and <code>newText</code> are only empty lines.
+         * 
+         * @param newText Text following text so far, starting with the new
+         * line separating them if any. <code>canAdd</code> must be true
+         */
+        public Write add(String newText) {
+            int newTrailingNewLines = countTrailingNewLines(newText);
+            boolean isOnlyNewLines = newTrailingNewLines == newText.length();
+
+            if (!hasSavedText) {
+                String text = repeatNewLines(trailingNewLines) + newText;
+                if (isOnlyNewLines)
+                    return new Write(null, false, false, text.length());
+                return new Write(text, false, true, newTrailingNewLines);
+            }
+
+            if (isOnlyNewLines)
+                return new Write(null, true, true, trailingNewLines + newTrailingNewLines);
+
+            // Saved file already ends with a line separator for the first new
+            // line. Add back empty lines dropped last time
+            String appendedText = trailingNewLines == 0
+                ? newText.substring(1)
+                : repeatNewLines(trailingNewLines - 1) + newText;
+            return new Write(appendedText, true, true, newTrailingNewLines);
+        }
+
+        /**
+         * Move on to state after <code>write</code>.
+         */
+        public void apply(Write write) {
+            hasSavedText = write.hasSavedText;
+            trailingNewLines = write.trailingNewLines;
+        }
+
+        private static int countTrailingNewLines(String text) {
+            int count = 0;
+            while (count < text.length() && text.charAt(text.length() - count - 1) == '\n')
+                count++;
+            return count;
+        }
+
+        private static String repeatNewLines(int count) {
+            StringBuilder newLines = new StringBuilder();
+            for (int i = 0; i < count; i++)
+                newLines.append('\n');
+            return newLines.toString();
+        }
+    }
+
+    // Truncate and write file directly, a crash midway leaves a partial file
+    private static void saveInPlace(Path filePath, String currentText) throws IOException {
+        FileChannel channel = FileChannel.open(filePath, 
+            StandardOpenOption.CREATE, 
+            StandardOpenOption.WRITE, 
+            StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            writeText(channel, currentText);
+            if (ComplierState.saveDurability == SYNC_ON_SAVE)
+                channel.force(true);
+        } finally {
+            channel.close();
+        }
+
+        syncAfterSave(filePath);
+    }
+
+    /**
+     * Write to a temporary file in the same folder and move it over the
+     * target file, so target file only ever has its old or new contents.
+     */
+    private static void saveAtomically(Path filePath, String currentText) throws IOException {
+        // Created with default permissions like a normally saved file
+        Path tempPath = filePath.resolveSibling(
+            "." + filePath.getFileName() + "." + System.nanoTime() + ".tmp");
+
+        try {
+            FileChannel channel = FileChannel.open(tempPath, 
+                StandardOpenOption.CREATE_NEW, 
+                StandardOpenOption.WRITE);
+            try {
+                writeText(channel, currentText);
+                if (ComplierState.saveDurability == SYNC_ON_SAVE)
+                    channel.force(true);
+            } finally {
+                channel.close();
+            }
+
+            try {
+                Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+
+        syncAfterSave(filePath);
+    }
+
+    /**
+     * Apply durability policy after file is written. SYNC_ON_SAVE also 
+     * forces the folder so the new file entry survives a crash. SYNC_BATCHED
+     * forces all files saved since the last sync once every 
+     * <code>ComplierState.syncBatchSize</code> saves.
+     */
+    private static void syncAfterSave(Path filePath) throws IOException {
+        if (ComplierState.saveDurability == SYNC_ON_SAVE) {
+            syncFolder(filePath.toAbsolutePath().getParent());
+
+        } else if (ComplierState.saveDurability == SYNC_BATCHED) {
+            Set<Path> filesToSync;
+            synchronized (unsyncedFiles) {
+                unsyncedFiles.add(filePath);
+                if (unsyncedFiles.size() < ComplierState.syncBatchSize)
+                    return;
+
+                // Appends save the same file many times, force it once
+                filesToSync = new LinkedHashSet<Path>(unsyncedFiles);
+                unsyncedFiles.clear();
+            }
+
+            for (Path path : filesToSync) {
+                // File may have been renamed or deleted since it was saved
+                if (!Files.exists(path))
+                    continue;
+
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                try {
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+                syncFolder(path.toAbsolutePath().getParent());
+            }
+        }
+    }
+
+    // Not all platforms allow folders to be opened (e.g Windows), skip if so
+    private static void syncFolder(Path folder) {
+        try {
+            FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Streams <code>text</code> to <code>channel</code> as UTF-8 in a single 
+     * pass, translating each "\n" to the system line separator. Every line is 
+     * terminated by a line separator and trailing empty lines are dropped.
+     * 
+     * @param channel Channel to write encoded text to
+     * @param text Text to be written
+     * @throws IOException
+     */
+    static void writeText(WritableByteChannel channel, String text) throws IOException {
+        String newLine = System.lineSeparator();
+
+        // Trailing empty lines are not written
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '\n')
+            end--;
+        boolean hasLines = end > 0 || text.isEmpty();
+
+        CharsetEncoder encoder = textEncoder.get();
+        encoder.reset();
+        CharBuffer chars = CharBuffer.allocate(WRITE_BUFFER_SIZE);
+        ByteBuffer bytes = ByteBuffer.allocate(WRITE_BUFFER_SIZE * 2);
+
+        int start = 0;
+        while (start < end) {
+            int lineEnd = text.indexOf('\n', start);
+            if (lineEnd < 0 || lineEnd > end)
+                lineEnd = end;
+
+            // Copy line in as large pieces as the buffer holds
+            while (start < lineEnd) {
+                if (!chars.hasRemaining())
+                    encodeChars(channel, encoder, chars, bytes, false);
+
+                int pieceEnd = Math.min(lineEnd, start + chars.remaining());
+                chars.put(text, start, pieceEnd);
+                start = pieceEnd;
+            }
+
+            if (lineEnd < end) {
+                if (chars.remaining() < newLine.length())
+                    encodeChars(channel, encoder, chars, bytes, false);
+                chars.put(newLine);
+                start = lineEnd + 1;
+            }
+        }
+
+        if (chars.remaining() < newLine.length())
+            encodeChars(channel, encoder, chars, bytes, false);
+        if (hasLines)
+            chars.put(newLine);
+        encodeChars(channel, encoder, chars, bytes, true);
+
+        while (encoder.flush(bytes).isOverflow())
+            writeBytes(channel, bytes);
+        writeBytes(channel, bytes);
+    }
+
+    // Encode buffered chars, leaving any incomplete surrogate pair in chars
+    private static void encodeChars(WritableByteChannel channel, CharsetEncoder encoder,
+            CharBuffer chars, ByteBuffer bytes, boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                writeBytes(channel, bytes);
+            } else {
+                break;
+            }
+        }
+        chars.compact();
+    }
+
+    private static void writeBytes(WritableByteChannel channel, ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+    }
 }
@@ -0,0 +1,201 @@
+package main.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import main.MainWindow;
+import main.views.FileBrowser;
+
+/**
+ * <p>
+ * Watches the folder shown in <code>fileBrowser</code> for files added,
+ * changed or removed by other programs and updates the tree in place.
+ * </p>
+ *
+ * <p>
+ * Bursts of events are coalesced so each changed file is only updated
+ * once. If the system drops events, or too many files change at once,
+ * the folder is listed again instead.
+ * </p>
+ */
+public class FolderWatcher extends Thread {
+    private final int COALESCE_DELAY = 200; // in milliseconds
+    private final int MAX_COALESCE_DELAY = 1000; // in milliseconds
+    private final int MAX_CHANGES = 256;
+
+    private FileBrowser fileBrowser;
+    private WatchService watchService;
+
+    // Only accessed while synchronized
+    private WatchKey watchKey = null;
+    private Path watchedFolder = null;
+
+    public FolderWatcher(FileBrowser fileBrowser) {
+        super("Folder Watcher");
+        setDaemon(true);
+        this.fileBrowser = fileBrowser;
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            System.out.println("Unable to watch folders: " + e);
+            MainWindow.consoleLog("Unable to watch folders, please use Refresh to update file browser");
+        }
+    }
+
+    /**
+     * Stop watching the previous folder and start watching <code>folder</code>.
+     *
+     * @param folder Folder shown in file browser
+     */
+    public synchronized void watch(File folder) {
+        if (watchService == null || folder == null)
+            return;
+
+        Path folderPath = folder.toPath().toAbsolutePath();
+        if (folderPath.equals(watchedFolder))
+            return;
+
+        if (watchKey != null)
+            watchKey.cancel();
+        watchKey = null;
+        watchedFolder = folderPath;
+
+        try {
+            watchKey = folderPath.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | ClosedWatchServiceException e) {
+            System.out.println("Unable to watch folder: " + folderPath + " " + e);
+        }
+    }
+
+    /**
+     * Ends the watcher thread. File browser is no longer updated after this.
+     */
+    public void stopWatching() {
+        if (watchService == null)
+            return;
+
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    public void run() {
+        if (watchService == null)
+            return;
+
+        while (true) {
+            try {
+                // Wait (without using CPU) until something in the folder changes
+                WatchKey key = watchService.take();
+
+                Set<Path> changedPaths = new LinkedHashSet<Path>();
+                boolean isOverflow = false;
+
+                // Keep collecting until events stop arriving, or for at most
+                // MAX_COALESCE_DELAY so a busy folder still gets updated
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_COALESCE_DELAY);
+                while (key != null) {
+                    isOverflow |= collectEvents(key, changedPaths);
+                    if (System.nanoTime() > deadline)
+                        break;
+
+                    key = watchService.poll(COALESCE_DELAY, TimeUnit.MILLISECONDS);
+                }
+
+                applyChanges(changedPaths, isOverflow || changedPaths.size() > MAX_CHANGES);
+
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Add paths changed in the watched folder to <code>changedPaths</code>.
+     *
+     * @return true if events were dropped and folder has to be listed again
+     */
+    private boolean collectEvents(WatchKey key, Set<Path> changedPaths) {
+        Path folder = (Path) key.watchable();
+        boolean isWatchedFolder;
+        synchronized (this) {
+            isWatchedFolder = folder.equals(watchedFolder);
+        }
+
+        boolean isOverflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // Events of a folder no longer shown are not needed
+            if (!isWatchedFolder)
+                continue;
+
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                isOverflow = true;
+                continue;
+            }
+
+            changedPaths.add(folder.resolve((Path) event.context()));
+        }
+        key.reset();
+
+        return isOverflow;
+    }
+
+    /**
+     * Check which changed files still exist on this thread, then update
+     * file browser on the Swing thread.
+     */
+    private void applyChanges(Set<Path> changedPaths, boolean isRescan) {
+        final Path folder;
+        synchronized (this) {
+            folder = watchedFolder;
+        }
+
+        if (isRescan) {
+            SwingUtilities.invokeLater(() -> fileBrowser.refreshFolder(folder.toFile()));
+            return;
+        }
+
+        if (changedPaths.isEmpty())
+            return;
+
+        final Map<File, Boolean> changedFiles = new LinkedHashMap<File, Boolean>();
+        for (Path path : changedPaths) {
+            File file = path.toFile();
+
+            // Temporary files of atomic saves are never shown
+            if (FileUtil.isTempFile(file))
+                continue;
+
+            changedFiles.put(file, file.exists() && !file.isHidden());
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            for (Map.Entry<File, Boolean> change : changedFiles.entrySet()) {
+                if (change.getValue())
+                    fileBrowser.addFile(change.getKey());
+                else
+                    fileBrowser.removeFile(change.getKey());
+            }
+        });
+    }
+}
@@ -0,0 +1,35 @@
+package main.utility;
+
+/**
+ * Where messages for the user are logged from code that does not depend
+ * on the window, e.g saving files and listening to the clipboard. Logs to
+ * standard output until the window sets its console as the sink, so the
+ * headless mode never loads Swing just to log a line. Messages are only
+ * logged here, not printed separately as well.
+ */
+public class LogUtil {
+    public interface LogSink {
+        /**
+         * Log <code>text</code>, may be called from any thread.
+         */
+        void log(String text);
+    }
+
+    private static volatile LogSink sink = null;
+
+    /**
+     * @param logSink Sink for all messages logged from now on, null to log 
+     * to standard output
+     */
+    public static void setSink(LogSink logSink) {
+        sink = logSink;
+    }
+
+    public static void log(String text) {
+        LogSink logSink = sink;
+        if (logSink != null)
+            logSink.log(text);
+        else
+            System.out.println(text);
+    }
+}
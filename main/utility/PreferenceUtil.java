@@ -16,6 +16,12 @@ public class PreferenceUtil {
     final static String fileNameKey = "File Name";
     final static String incrementNumberKey = "Increment Number";
     final static String fileSortByKey = "File Sort By";
+    final static String atomicSaveKey = "Atomic Save";
+    final static String saveDurabilityKey = "Save Durability";
+    final static String syncBatchSizeKey = "Sync Batch Size";
+    final static String autosaveKey = "Autosave";
+    final static String autosaveIntervalKey = "Autosave Interval";
+    final static String autosaveCapturesKey = "Autosave Captures";
 
     /**
      * Saves all preferences from textfields and autosave checkbox
@@ -34,6 +40,12 @@ public class PreferenceUtil {
         prefs.put(fileNameKey, mainWindow.fileNameTextField.getText());
         prefs.putBoolean(incrementNumberKey, ComplierState.incrementNumber);
         prefs.putInt(fileSortByKey, ComplierState.fileSortBy);
+        prefs.putBoolean(atomicSaveKey, ComplierState.atomicSave);
+        prefs.putInt(saveDurabilityKey, ComplierState.saveDurability);
+        prefs.putInt(syncBatchSizeKey, ComplierState.syncBatchSize);
+        prefs.putBoolean(autosaveKey, ComplierState.autosave);
+        prefs.putInt(autosaveIntervalKey, ComplierState.autosaveInterval);
+        prefs.putInt(autosaveCapturesKey, ComplierState.autosaveCaptures);
     }
 
     /**
@@ -51,6 +63,17 @@ public class PreferenceUtil {
 		mainWindow.incrementCheckBox.setSelected(incrementNum);
         ComplierState.incrementNumber = incrementNum;
 
+        ComplierState.atomicSave = prefs.getBoolean(atomicSaveKey, true);
+        ComplierState.saveDurability = Math.max(FileUtil.SYNC_NONE,
+            Math.min(FileUtil.SYNC_BATCHED, prefs.getInt(saveDurabilityKey, FileUtil.SYNC_ON_SAVE)));
+        ComplierState.syncBatchSize = Math.max(1, prefs.getInt(syncBatchSizeKey, 10));
+
+        boolean autosave = prefs.getBoolean(autosaveKey, false);
+        mainWindow.autosaveCheckBox.setSelected(autosave);
+        ComplierState.autosave = autosave;
+        ComplierState.autosaveInterval = Math.max(100, prefs.getInt(autosaveIntervalKey, 5000));
+        ComplierState.autosaveCaptures = Math.max(1, prefs.getInt(autosaveCapturesKey, 20));
+
 		String output = prefs.get(outputFolderKey, "");
 		String leading = prefs.get(leadingKey, "");
 		String number = prefs.get(numberKey, "");
@@ -0,0 +1,108 @@
+package main.utility;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+public class TaskUtil {
+    // File writes run one at a time in the order they were requested
+    private static final ExecutorService ioExecutor = newSingleThreadExecutor("File IO");
+
+    /**
+     * Creates an executor with a single daemon thread named 
+     * <code>name</code>.
+     * 
+     * @param name Thread name shown in stack traces
+     */
+    public static ExecutorService newSingleThreadExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs file IO <code>task</code> in the background. Callbacks are run 
+     * on the Swing thread once task is done.
+     * 
+     * @param task Task to run in background
+     * @param onComplete Called with result of task
+     * @param onError Called if task threw an exception, can be null
+     * @return Future to cancel task
+     */
+    public static <T> Future<?> runInBackground(Callable<T> task,
+            Consumer<T> onComplete, Consumer<Exception> onError) {
+        return runInBackground(ioExecutor, task, onComplete, onError);
+    }
+
+    /**
+     * Runs <code>task</code> with <code>executor</code>. Callbacks are run
+     * on the Swing thread once task is done. No callback is run if the
+     * task was cancelled.
+     * 
+     * @param executor Executor to run task with
+     * @param task Task to run in background
+     * @param onComplete Called with result of task
+     * @param onError Called if task threw an exception, can be null
+     * @return Future to cancel task
+     */
+    public static <T> Future<?> runInBackground(ExecutorService executor, final Callable<T> task,
+            final Consumer<T> onComplete, final Consumer<Exception> onError) {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final T result = task.call();
+                    if (Thread.currentThread().isInterrupted())
+                        return;
+
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            onComplete.accept(result);
+                        }
+                    });
+
+                } catch (final Exception e) {
+                    if (Thread.currentThread().isInterrupted())
+                        return;
+
+                    e.printStackTrace();
+                    if (onError == null)
+                        return;
+
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            onError.accept(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for pending file IO tasks (e.g saves) to finish before exiting.
+     * 
+     * @param timeout Maximum time to wait in milliseconds
+     */
+    public static void awaitPendingIo(long timeout) {
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
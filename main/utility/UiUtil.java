@@ -3,19 +3,59 @@ package main.utility;
 import java.awt.Rectangle;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.JTextArea;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 
 import main.ComplierState;
 import main.MainWindow;
 import main.views.FileBrowser;
+import main.views.PagedFileViewer;
 
 public class UiUtil {
     MainWindow mainWindow;
-
-    public UiUtil(MainWindow mainWindow) {
+    CaptureJournal captureJournal;
+    AutoSaver autoSaver;
+    FolderWatcher folderWatcher;
+
+    // First capture in currentFileTextArea not handed to a save yet, 
+    // recovered captures included
+    private long unsavedSequence = 0;
+
+    // Folder typed in outputFolderTextField is listed in the background
+    private final ExecutorService folderScanExecutor = TaskUtil.newSingleThreadExecutor("Folder Scan");
+    private Future<?> folderScan = null;
+    private long folderScanGeneration = 0;
+
+    // Selected file is read for fileViewerTextArea in the background
+    private static final String LOADING_TEXT = "Loading...";
+    private final ExecutorService previewExecutor = TaskUtil.newSingleThreadExecutor("File Preview");
+    private Future<?> previewLoad = null;
+    private volatile long previewGeneration = 0;
+
+    // Files next to the shown file are read ahead, as files are usually
+    // viewed one after another
+    private static final int PREFETCH_COUNT = 1; // files on each side
+    private final ExecutorService prefetchExecutor = TaskUtil.newSingleThreadExecutor("Preview Prefetch");
+    private Future<?> prefetch = null;
+    private File previewFile = null; // File being read or shown
+    private boolean isPreviewFromEnd = false;
+
+    public UiUtil(MainWindow mainWindow, CaptureJournal captureJournal) {
         this.mainWindow = mainWindow;
+        this.captureJournal = captureJournal;
+        this.autoSaver = new AutoSaver(mainWindow, this);
+
+        // Keep file browser up to date with changes made by other programs
+        this.folderWatcher = new FolderWatcher(mainWindow.fileBrowser);
+        folderWatcher.watch(ComplierState.currentDirectory);
+        folderWatcher.start();
     }
 
     /**
@@ -57,56 +97,52 @@ public class UiUtil {
      * and trailing to show file name in <code>fileNameTextField</code>
      */
     public void updateFileNameTextField() {
-        String number = mainWindow.numberTextField.getText().trim();
-        String limit = mainWindow.leadingZerosTextField.getText().trim();
-
-        boolean isNumberEmpty = number.isEmpty();
-        boolean isLimitEmpty = limit.equals("");
-        boolean isLimitZero = limit.equals("0");
-
-        if (!isNumberEmpty && !isLimitEmpty && !isLimitZero) {
-            try {
-                int limitInt = Integer.valueOf(limit);
-                int numberInt = Integer.valueOf(number);
-                limit = String.valueOf(limitInt);
-
-                String newFormat = "%0" + limit + "d";
-                number = String.format(newFormat, numberInt);
-
-            } catch (NumberFormatException e) {
-                e.printStackTrace();
-                MainWindow.consoleLog("Error updating file name!");
-            }
-        }
-
-        String leading = mainWindow.leadingTextField.getText();
-        String trailing = mainWindow.trailingTextField.getText();
-        if (number.isEmpty()) {
-            mainWindow.fileNameTextField.setText(leading + " " + trailing);
-        } else {
-            mainWindow.fileNameTextField.setText(leading + " " + number + " " + trailing);
-        }
+        mainWindow.fileNameTextField.setText(FileUtil.formatFileName(
+            mainWindow.leadingTextField.getText(),
+            mainWindow.numberTextField.getText(),
+            mainWindow.leadingZerosTextField.getText(),
+            mainWindow.trailingTextField.getText()));
     }
 
     /**
      * Update file browser with file directory from
      * <code>outputFolderTextField</code>. Checks if directory path
-     * exists before executing refresh and updating state file variables
+     * exists and lists it in the background, then refreshes file browser
+     * and updates state file variables. Listing of a previous path that
+     * is still running is cancelled, only the latest path is shown.
      */
     public void updateFileBrowser() {
-        String tempPath = mainWindow.outputFolderTextField.getText();
-        File tempFile = new File(tempPath);
-
-        if (tempFile.exists() && tempFile.isDirectory()) {
-            ComplierState.selectedFile = null;
-            ComplierState.currentDirectory = tempFile;
-            ComplierState.parentDirectory = tempFile.getParentFile();
-
-            mainWindow.fileBrowser.buildTreeFromPath(tempPath, ComplierState.fileSortBy);
-        }
+        final String tempPath = mainWindow.outputFolderTextField.getText();
+        final long generation = ++folderScanGeneration;
+
+        if (folderScan != null)
+            folderScan.cancel(true);
+
+        folderScan = TaskUtil.runInBackground(folderScanExecutor,
+            () -> mainWindow.fileBrowser.readFolder(tempPath, ComplierState.fileSortBy),
+            (listing) -> {
+                // Path was changed again while listing
+                if (generation != folderScanGeneration || listing == null)
+                    return;
+
+                File tempFile = listing.getFolder();
+                ComplierState.selectedFile = null;
+                ComplierState.currentDirectory = tempFile;
+                ComplierState.parentDirectory = tempFile.getParentFile();
+
+                mainWindow.fileBrowser.showFolder(listing);
+                folderWatcher.watch(tempFile);
+            },
+            (error) -> {
+                if (generation != folderScanGeneration)
+                    return;
+
+                System.out.println("Error listing folder: " + tempPath);
+                MainWindow.consoleLog("Error listing folder: " + tempPath);
+            });
 
         // Reset fileViewer after updating fileBrowser
-        mainWindow.fileViewerTextArea.setText("");
+        clearFileViewer();
     }
 
     /**
@@ -168,6 +204,20 @@ public class UiUtil {
     public void toggleTopBottomFileViewer(boolean top) {
         ComplierState.showTextFileTop = top;
 
+        // Paged file only has part of the file loaded, reload from top or 
+        // bottom. A file still being read is read again from there too.
+        File fileToReload = null;
+        if (mainWindow.pagedFileViewer.isOpen())
+            fileToReload = mainWindow.pagedFileViewer.getFile();
+        else if (previewLoad != null && !previewLoad.isDone())
+            fileToReload = previewFile;
+
+        if (fileToReload != null) {
+            previewFile = null;
+            handleFileBrowserFileClick(fileToReload);
+            return;
+        }
+
         // Scroll to top or bottom position based on user preference
         if (ComplierState.showTextFileTop) {
             Rectangle rect = new Rectangle(0, 0, 1, 1);
@@ -183,24 +233,151 @@ public class UiUtil {
     /**
 	 * Display file contents when text (.txt) FILE is clicked in 
      * fileBrowser. Update <code>selectedFile</code> state.
+     * 
+     * <p>
+     * File is read in the background while "Loading..." is shown, only
+     * the file selected last is shown once read.
+     * </p>
      * 
 	 * @param selectedFile File object of selected file
 	 */
-	public void handleFileBrowserFileClick(File selectedFile) {
+	public void handleFileBrowserFileClick(final File selectedFile) {
 		// Update selectedFile state
 		ComplierState.selectedFile = selectedFile;
 
-		// Check if text file selected and show contents
-		String content = FileUtil.readTextFile(selectedFile);
-		mainWindow.fileViewerTextArea.setText(content);
+		// Large text files are read one page at a time, only the end of the 
+		// file is read when showing bottom
+		final boolean fromEnd = !ComplierState.showTextFileTop;
+
+        // Same file is still being read, e.g clicked again while loading
+        if (previewLoad != null && !previewLoad.isDone()
+                && selectedFile.equals(previewFile) && fromEnd == isPreviewFromEnd)
+            return;
 
-        // Set caret position based on user preference
-        if (ComplierState.showTextFileTop)
-		    mainWindow.fileViewerTextArea.setCaretPosition(0);
-        else 
-            bringCursorToStart(mainWindow.fileViewerTextArea);
+        cancelPreview();
+        final long generation = previewGeneration;
+        previewFile = selectedFile;
+        isPreviewFromEnd = fromEnd;
+
+        final PagedFileViewer pagedFileViewer = mainWindow.pagedFileViewer;
+        final int tailSize = pagedFileViewer.getTailSize();
+
+        pagedFileViewer.close();
+        mainWindow.fileViewerTextArea.setText(LOADING_TEXT);
+
+        previewLoad = TaskUtil.runInBackground(previewExecutor,
+            () -> pagedFileViewer.readPreview(selectedFile, fromEnd, tailSize),
+            (preview) -> {
+                // Another file was selected while reading
+                if (generation != previewGeneration) {
+                    preview.close();
+                    return;
+                }
+
+                pagedFileViewer.showPreview(preview);
+                prefetchNeighbours(selectedFile, fromEnd, tailSize, generation);
+                if (preview.isPaged())
+                    return;
+
+                // Set caret position based on user preference
+                if (ComplierState.showTextFileTop)
+                    mainWindow.fileViewerTextArea.setCaretPosition(0);
+                else 
+                    bringCursorToStart(mainWindow.fileViewerTextArea);
+            },
+            (error) -> {
+                if (generation != previewGeneration)
+                    return;
+                previewFile = null;
+
+                mainWindow.fileViewerTextArea.setText("");
+                System.out.println("Error reading file: " + error);
+                MainWindow.consoleLog("Error reading file: " + selectedFile.getName());
+            });
 	}
 
+    /**
+     * Read files next to <code>file</code> into the preview cache, so they
+     * show right away when selected next. Stops once another file is
+     * selected.
+     */
+    private void prefetchNeighbours(File file, final boolean fromEnd, final int tailSize,
+            final long generation) {
+        final List<File> neighbourFiles = mainWindow.fileBrowser.getNeighbourFiles(file, PREFETCH_COUNT);
+        if (neighbourFiles.isEmpty())
+            return;
+
+        final PagedFileViewer pagedFileViewer = mainWindow.pagedFileViewer;
+        prefetch = prefetchExecutor.submit(() -> {
+            for (File neighbourFile : neighbourFiles) {
+                if (generation != previewGeneration)
+                    return;
+
+                try {
+                    pagedFileViewer.readPreview(neighbourFile, fromEnd, tailSize).close();
+                } catch (IOException e) {
+                    // Shown as an error once selected, if still unreadable
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop waiting for the file being read for <code>fileViewerTextArea</code>,
+     * it is not shown once read.
+     */
+    private void cancelPreview() {
+        previewGeneration++;
+        previewFile = null;
+
+        // Not interrupted, so a file being paged is still closed once read
+        if (previewLoad != null)
+            previewLoad.cancel(false);
+        previewLoad = null;
+
+        if (prefetch != null)
+            prefetch.cancel(false);
+        prefetch = null;
+    }
+
+    /**
+     * Empty <code>fileViewerTextArea</code> and stop paging any large file
+     * shown in it.
+     */
+    public void clearFileViewer() {
+        cancelPreview();
+        mainWindow.pagedFileViewer.close();
+        mainWindow.fileViewerTextArea.setText("");
+    }
+
+    /**
+     * Read <code>file</code> again next time it is selected, even if it is
+     * being read now, as it was changed by this program.
+     * 
+     * @param file File that was saved, renamed or deleted
+     */
+    public void invalidatePreview(File file) {
+        mainWindow.pagedFileViewer.invalidatePreview(file);
+        if (file.equals(previewFile))
+            previewFile = null;
+    }
+
+    /**
+     * Reset <code>selectedFile</code> state and <code>fileViewerTextArea</code>
+     * if <code>file</code> is shown in it, as it was changed or removed.
+     * Its cached text is dropped too.
+     * 
+     * @param file File that was saved, renamed or deleted
+     */
+    private void forgetSelectedFile(File file) {
+        invalidatePreview(file);
+
+        if (file.equals(ComplierState.selectedFile)) {
+            ComplierState.selectedFile = null;
+            clearFileViewer();
+        }
+    }
+
     /**
 	 * Updates <code>outputFolderTextField</code> which will update 
      * file browser when FOLDER is clicked in <code>fileBrowser</code>. 
@@ -213,7 +390,7 @@ public class UiUtil {
 		mainWindow.outputFolderTextField.setText(path);
 
 		// Reset fileViewer to empty as folder is selected
-		mainWindow.fileViewerTextArea.setText("");
+		clearFileViewer();
 	}
 
     /**
@@ -225,24 +402,44 @@ public class UiUtil {
      * @param clipboardText New clipboard text to be shown
      */
     public void handleClipboardUpdate(String clipboardText) {
+        handleClipboardUpdates(Collections.singletonList(clipboardText));
+    }
+
+    /**
+     * Appends a batch of incoming clipboard texts to current text file
+     * with a single text area update. Only the latest clipboard text is
+     * shown in <code>clipboardTextArea</code>.
+     * 
+     * @param clipboardTexts New clipboard texts in the order they were copied
+     */
+    public void handleClipboardUpdates(List<String> clipboardTexts) {
         // Do not handle clipboard changes if NOT tracking
-        if (!ComplierState.isTracking)
+        if (!ComplierState.isTracking || clipboardTexts.isEmpty())
             return;
 
-        ComplierState.previousClipboard = clipboardText;
+        String latestText = clipboardTexts.get(clipboardTexts.size() - 1);
+        ComplierState.previousClipboard = latestText;
 
-        String currentText = mainWindow.currentFileTextArea.getText();
+        // Only append new captures to the end of the document so each 
+        // capture costs its own size instead of copying the whole text
+        boolean isCurrentTextEmpty = mainWindow.currentFileTextArea.getDocument().getLength() == 0;
+        StringBuilder newText = new StringBuilder();
+        for (String clipboardText : clipboardTexts) {
+            if (!isCurrentTextEmpty || newText.length() != 0)
+                newText.append("\n");
+            newText.append(clipboardText);
 
-        if (currentText.isEmpty())
-            currentText += clipboardText;
-        else
-            currentText += "\n" + clipboardText;
+            // Keep unsaved capture on disk in case program crashes
+            captureJournal.append(clipboardText);
+        }
 
-        mainWindow.currentFileTextArea.setText(currentText);
-        mainWindow.clipboardTextArea.setText(clipboardText.trim());
+        mainWindow.currentFileTextArea.append(newText.toString());
+        mainWindow.clipboardTextArea.setText(latestText.trim());
 
         bringCursorToStart(mainWindow.currentFileTextArea);
         bringCursorToStart(mainWindow.clipboardTextArea);
+
+        autoSaver.onCaptures(clipboardTexts.size());
     }
 
     /**
@@ -294,8 +491,11 @@ public class UiUtil {
         }
 
         boolean renameSuccess = FileUtil.rename(selectedFile, renamedFileName);
-        if (renameSuccess)
-            updateFileBrowser();
+        if (renameSuccess) {
+            // Move renamed file in file browser without rebuilding tree
+            forgetSelectedFile(selectedFile);
+            mainWindow.fileBrowser.renameFile(selectedFile, renamedFile);
+        }
     }
     
     /**
@@ -323,7 +523,8 @@ public class UiUtil {
                 MainWindow.consoleLog("Successfully deleted: " + selectedFile.getAbsolutePath());
 
                 // Update file browser to remove deleted file
-                updateFileBrowser();
+                forgetSelectedFile(selectedFile);
+                mainWindow.fileBrowser.removeFile(selectedFile);
             } else {
                 System.out.println("Error occurred deleting: " + selectedFile.getAbsolutePath());
                 MainWindow.consoleLog("Error occurred deleting: " + selectedFile.getAbsolutePath());
@@ -339,26 +540,27 @@ public class UiUtil {
      * </p>
      * 
      * <p>
-     * Once file is saved successfully, reset <code>currentFileTextArea</code>
-     * to empty, refresh file browser to show newly added file and increment
-     * <code>numberTextField</code>.
+     * File is written in the background. <code>currentFileTextArea</code> is
+     * reset to empty and <code>numberTextField</code> incremented straight
+     * away so capturing can carry on. Once file is saved, refresh file 
+     * browser to show newly added file. If saving fails, unsaved text and 
+     * file number are restored.
      * </p>
      */
     public void saveFile() {
-        String fileDirectory = mainWindow.outputFolderTextField.getText();
-        String fileName = mainWindow.fileNameTextField.getText().trim();
-        String currentText = mainWindow.currentFileTextArea.getText();
+        File fileToSave = getFileToSave();
+        final String currentText = mainWindow.currentFileTextArea.getText();
 
         // Don't save if directory or file name is empty
-        if (fileDirectory.isEmpty() || fileName.isEmpty()) {
+        if (fileToSave == null) {
             System.out.println("Error! Empty file name or directory. Please enter name or folder");
             MainWindow.consoleLog("Error! Empty file name or directory. Please enter name or folder");
             return;
         }
 
-        File fileToSave = new File(fileDirectory, fileName + ".txt");
-        // Ask user to override if there is an existing file
-        if (fileToSave.exists()) {
+        // Ask user to override if there is an existing file, unless it is 
+        // the file being autosaved
+        if (fileToSave.exists() && !autoSaver.isAutosaveFile(fileToSave)) {
             boolean confirmSave = DialogUtil.showConfirmSaveDialog(mainWindow);
 
             // User chooses NOT to override file, abort saving file
@@ -369,17 +571,123 @@ public class UiUtil {
             }
         }
 
-        boolean saveSuccess = FileUtil.save(fileToSave.getAbsolutePath(), currentText);
-        if (saveSuccess) {
-            // Reset current file text
-            mainWindow.currentFileTextArea.setText("");
+        // Captures since the last save are in the saved file once save 
+        // succeeds, including those restored after a failed save
+        final long firstSavedSequence = unsavedSequence;
+        final long savedSequence = captureJournal.getLastSequence();
+        unsavedSequence = savedSequence + 1;
+
+        // Reset current file text and move on to next file number
+        final String previousNumber = mainWindow.numberTextField.getText();
+        mainWindow.currentFileTextArea.setText("");
+
+        // Only increment number if checkbox is ticked
+        if (ComplierState.incrementNumber)
+            incrementNumberTextField();
+        final String nextNumber = mainWindow.numberTextField.getText();
+
+        final String filePath = fileToSave.getAbsolutePath();
+        TaskUtil.runInBackground(
+            () -> FileUtil.save(filePath, currentText),
+            (saveSuccess) -> {
+                if (saveSuccess) {
+                    captureJournal.markSaved(firstSavedSequence, savedSequence);
+
+                    // Update file browser to show new file
+                    File savedFile = new File(filePath);
+                    forgetSelectedFile(savedFile);
+                    mainWindow.fileBrowser.addFile(savedFile);
+                } else
+                    restoreUnsavedText(currentText, firstSavedSequence, previousNumber, nextNumber);
+            },
+            (error) -> restoreUnsavedText(currentText, firstSavedSequence, previousNumber, nextNumber));
+    }
+
+    /**
+     * File that <code>currentFileTextArea</code> is saved to, from 
+     * <code>outputFolderTextField</code> and <code>fileNameTextField</code>.
+     * 
+     * @return File to save to or null if folder or file name is empty
+     */
+    public File getFileToSave() {
+        String fileDirectory = mainWindow.outputFolderTextField.getText();
+        String fileName = mainWindow.fileNameTextField.getText().trim();
 
-            // Update file browser to show new file
-            updateFileBrowser();
+        if (fileDirectory.isEmpty() || fileName.isEmpty())
+            return null;
+
+        return new File(fileDirectory, fileName + ".txt");
+    }
+
+    /**
+     * Autosave any captures still waiting for autosave interval.
+     */
+    public void flushAutosave() {
+        if (ComplierState.autosave)
+            autoSaver.flush();
+    }
 
-            // Only increment number if checkbox is ticked
-            if (ComplierState.incrementNumber)
-                incrementNumberTextField();
+    /**
+     * Puts captures recovered from capture journal back into 
+     * <code>currentFileTextArea</code> when program starts.
+     * 
+     * @param recoveredCaptures Unsaved captures from previous session
+     */
+    public void restoreRecoveredCaptures(List<String> recoveredCaptures) {
+        if (recoveredCaptures.isEmpty())
+            return;
+
+        mainWindow.currentFileTextArea.setText(String.join("\n", recoveredCaptures));
+        bringCursorToStart(mainWindow.currentFileTextArea);
+
+        System.out.println("Recovered " + recoveredCaptures.size() + " unsaved captures from last session");
+        MainWindow.consoleLog("Recovered " + recoveredCaptures.size() + " unsaved captures from last session");
+    }
+
+    /**
+     * Stop watching output folder, files saved while exiting are not
+     * shown anymore.
+     */
+    public void stopWatchingFolder() {
+        folderWatcher.stopWatching();
+    }
+
+    /**
+     * Write remaining captures to capture journal before program exits.
+     */
+    public void closeCaptureJournal() {
+        captureJournal.close();
+    }
+
+    /**
+     * Called when saving in background fails. Puts unsaved text back in front 
+     * of any text captured since saving and reverts file number, unless user 
+     * has changed it since.
+     * 
+     * @param unsavedText Text that failed to save
+     * @param firstSequence Sequence number of first capture in unsaved text
+     * @param previousNumber File number before saving
+     * @param nextNumber File number after saving
+     */
+    private void restoreUnsavedText(String unsavedText, long firstSequence, 
+            String previousNumber, String nextNumber) {
+        // Restored captures are saved with the next save, keep them in journal until then
+        unsavedSequence = Math.min(unsavedSequence, firstSequence);
+
+        if (!unsavedText.isEmpty()) {
+            Document document = mainWindow.currentFileTextArea.getDocument();
+            String restoredText = document.getLength() == 0 ? unsavedText : unsavedText + "\n";
+            try {
+                document.insertString(0, restoredText, null);
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
         }
+
+        if (mainWindow.numberTextField.getText().equals(nextNumber))
+            mainWindow.numberTextField.setText(previousNumber);
+
+        System.out.println("Unable to save file, unsaved text restored");
+        MainWindow.consoleLog("Unable to save file, unsaved text restored");
     }
 }
@@ -0,0 +1,111 @@
+package main.views;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+import main.utility.UiUtil;
+
+/**
+ * Fixed capacity log backing the console text area. Log lines are kept in
+ * a ring buffer, so the oldest line is overwritten once full, and only new
+ * lines are appended to the text area. Lines can be logged from any thread,
+ * the text area is always updated on the Swing thread.
+ */
+public class ConsoleLog {
+    private final JTextArea console;
+
+    private final String[] lines;
+    private int start = 0;
+    private int size = 0;
+
+    // Lines logged but not yet shown in console
+    private int pendingCount = 0;
+    private boolean isFlushScheduled = false;
+
+    private final Runnable flushPending = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ConsoleLog(JTextArea console, int capacity) {
+        this.console = console;
+        this.lines = new String[capacity];
+    }
+
+    /**
+     * Adds <code>text</code> as newest line, overwriting the oldest line
+     * when full. Console is updated on the next Swing event.
+     * 
+     * @param text
+     */
+    public void log(String text) {
+        synchronized (this) {
+            int end = (start + size) % lines.length;
+            lines[end] = text;
+
+            if (size == lines.length)
+                start = (start + 1) % lines.length;
+            else
+                size++;
+
+            pendingCount = Math.min(pendingCount + 1, lines.length);
+            if (isFlushScheduled)
+                return;
+            isFlushScheduled = true;
+        }
+
+        SwingUtilities.invokeLater(flushPending);
+    }
+
+    // Append pending lines to console and trim lines beyond capacity
+    private void flush() {
+        StringBuilder newText = new StringBuilder();
+        boolean isReplacingAll;
+
+        synchronized (this) {
+            isFlushScheduled = false;
+            isReplacingAll = pendingCount == lines.length;
+
+            for (int i = size - pendingCount; i < size; i++) {
+                if (newText.length() != 0)
+                    newText.append("\n");
+                newText.append(lines[(start + i) % lines.length]);
+            }
+            pendingCount = 0;
+        }
+
+        if (isReplacingAll) {
+            console.setText(newText.toString());
+
+        } else {
+            if (console.getDocument().getLength() != 0)
+                newText.insert(0, "\n");
+            console.append(newText.toString());
+            trimOldLines();
+        }
+
+        UiUtil.bringCursorToStart(console);
+    }
+
+    private void trimOldLines() {
+        Document document = console.getDocument();
+        Element root = document.getDefaultRootElement();
+
+        int excessLines = root.getElementCount() - lines.length;
+        if (excessLines <= 0)
+            return;
+
+        try {
+            int end = root.getElement(excessLines - 1).getEndOffset();
+            document.remove(0, end);
+
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package main.views;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import main.MainWindow;
+import main.misc.FileNameComparator;
+
+/**
+ * <p>
+ * Files and folders of a folder with the keys they are sorted by. Each
+ * entry's attributes are read once when the folder is listed, so sorting
+ * never has to ask the file system again.
+ * </p>
+ *
+ * <p>
+ * Sorted orders are kept for every sort mode used, so toggling the sort
+ * buttons back and forth only sorts each mode once. A snapshot is still
+ * valid while the folder's modified time is unchanged.
+ * </p>
+ */
+class DirectorySnapshot {
+    private static final boolean IS_WINDOWS = File.separatorChar == '\\';
+
+    // Folders with at least this many files have their attributes read in
+    // parallel, by threads that mostly wait on the file system
+    private static final int PARALLEL_SCAN_SIZE = 2048;
+    private static final int SCAN_BATCH_SIZE = 256;
+    private static final int SCAN_THREADS = 8;
+    private static final ForkJoinPool scanPool = new ForkJoinPool(SCAN_THREADS);
+
+    final long lastModified;
+    final File[] files;
+    final String[] names;
+    final boolean[] isFolder;
+    final long[] modifiedTimes;
+
+    // Sorted indexes of entries for each sort mode, sorted when first needed
+    private final int[][] sortedIndexes = new int[4][];
+
+    private DirectorySnapshot(long lastModified, File[] files, String[] names,
+            boolean[] isFolder, long[] modifiedTimes) {
+        this.lastModified = lastModified;
+        this.files = files;
+        this.names = names;
+        this.isFolder = isFolder;
+        this.modifiedTimes = modifiedTimes;
+    }
+
+    /**
+     * List visible files and folders of <code>folder</code> and read their
+     * attributes. Hidden files are left out like in a file chooser.
+     *
+     * @param folder Folder to list
+     * @param lastModified Modified time of folder read before listing it
+     * @return Snapshot of folder
+     * @throws IOException if folder cannot be listed
+     */
+    static DirectorySnapshot read(File folder, long lastModified) throws IOException {
+        long startTime = System.nanoTime();
+
+        List<Path> paths = new ArrayList<Path>();
+        BasicFileAttributes[] attributes;
+        if (IS_WINDOWS) {
+            // Windows returns attributes with the listing, only a file tree
+            // walk uses them instead of asking again for every file
+            List<BasicFileAttributes> listedAttributes = new ArrayList<BasicFileAttributes>();
+            walkFolder(folder.toPath(), paths, listedAttributes);
+            attributes = listedAttributes.toArray(new BasicFileAttributes[paths.size()]);
+
+        } else {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder.toPath())) {
+                for (Path path : stream) {
+                    checkCancelled();
+                    if (!path.getFileName().toString().startsWith("."))
+                        paths.add(path);
+                }
+            }
+
+            // Each file is a separate request, slow on network folders, so
+            // large folders are read by several threads at once
+            attributes = new BasicFileAttributes[paths.size()];
+            if (paths.size() >= PARALLEL_SCAN_SIZE)
+                scanInParallel(paths, attributes);
+            else
+                readAttributes(paths, attributes, 0, paths.size(), new AtomicBoolean());
+        }
+        checkCancelled();
+
+        DirectorySnapshot snapshot = fromAttributes(folder, lastModified, paths, attributes);
+
+        if (paths.size() >= PARALLEL_SCAN_SIZE) {
+            long duration = (System.nanoTime() - startTime) / 1000000;
+            System.out.println("Listed " + paths.size() + " files in " + duration + " ms: " + folder.getAbsolutePath());
+            MainWindow.consoleLog("Listed " + paths.size() + " files in " + duration + " ms: " + folder.getAbsolutePath());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Stop listing a folder nobody waits for anymore, e.g a path that was
+     * still being typed.
+     */
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Folder listing cancelled");
+    }
+
+    /**
+     * Read attributes with threads of the pool while listing thread waits.
+     * Pool threads are not interrupted with the listing thread, so they are
+     * told to stop through a flag they check between entries.
+     */
+    private static void scanInParallel(List<Path> paths, BasicFileAttributes[] attributes) 
+            throws IOException {
+        AtomicBoolean isCancelled = new AtomicBoolean();
+        ForkJoinTask<Void> scan = scanPool.submit(
+            new AttributeScan(paths, attributes, 0, paths.size(), isCancelled));
+
+        try {
+            scan.get();
+        } catch (InterruptedException e) {
+            isCancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Folder listing cancelled");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads attributes of a range of listed entries, splitting the range
+     * between threads of the pool until it is small enough.
+     */
+    private static class AttributeScan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> paths;
+        private final BasicFileAttributes[] attributes;
+        private final int start;
+        private final int end;
+        private final AtomicBoolean isCancelled;
+
+        AttributeScan(List<Path> paths, BasicFileAttributes[] attributes, int start, int end,
+                AtomicBoolean isCancelled) {
+            this.paths = paths;
+            this.attributes = attributes;
+            this.start = start;
+            this.end = end;
+            this.isCancelled = isCancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (isCancelled.get())
+                return;
+
+            if (end - start <= SCAN_BATCH_SIZE) {
+                readAttributes(paths, attributes, start, end, isCancelled);
+                return;
+            }
+
+            int middle = (start + end) >>> 1;
+            invokeAll(new AttributeScan(paths, attributes, start, middle, isCancelled),
+                new AttributeScan(paths, attributes, middle, end, isCancelled));
+        }
+    }
+
+    // Stops early once listing is cancelled, snapshot is not used then
+    private static void readAttributes(List<Path> paths, BasicFileAttributes[] attributes, 
+            int start, int end, AtomicBoolean isCancelled) {
+        for (int i = start; i < end && !isCancelled.get(); i++)
+            attributes[i] = readAttributes(paths.get(i));
+    }
+
+    // Attributes of path or what it links to, null if removed while listing
+    // or a broken link
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return IS_WINDOWS
+                ? Files.readAttributes(path, DosFileAttributes.class)
+                : Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void walkFolder(final Path folder, final List<Path> paths,
+            final List<BasicFileAttributes> attributes) throws IOException {
+        Files.walkFileTree(folder, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes fileAttributes) throws IOException {
+                checkCancelled();
+                paths.add(path);
+                attributes.add(fileAttributes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+                if (path.equals(folder))
+                    throw e;
+
+                paths.add(path);
+                attributes.add(null);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Keep files and folders that are not hidden, in listing order.
+     */
+    private static DirectorySnapshot fromAttributes(File folder, long lastModified,
+            List<Path> paths, BasicFileAttributes[] attributes) {
+        int size = paths.size();
+        File[] files = new File[size];
+        String[] names = new String[size];
+        boolean[] isFolder = new boolean[size];
+        long[] modifiedTimes = new long[size];
+
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            BasicFileAttributes fileAttributes = attributes[i];
+
+            // Listing gives attributes of links themselves, not what they link to
+            if (fileAttributes != null && fileAttributes.isSymbolicLink())
+                fileAttributes = readAttributes(paths.get(i));
+
+            if (fileAttributes == null)
+                continue;
+            if (fileAttributes instanceof DosFileAttributes && ((DosFileAttributes) fileAttributes).isHidden())
+                continue;
+            if (!fileAttributes.isDirectory() && !fileAttributes.isRegularFile())
+                continue;
+
+            String name = paths.get(i).getFileName().toString();
+            files[count] = new File(folder, name);
+            names[count] = name;
+            isFolder[count] = fileAttributes.isDirectory();
+            modifiedTimes[count] = fileAttributes.lastModifiedTime().toMillis();
+            count++;
+        }
+
+        return new DirectorySnapshot(lastModified, Arrays.copyOf(files, count),
+            Arrays.copyOf(names, count), Arrays.copyOf(isFolder, count),
+            Arrays.copyOf(modifiedTimes, count));
+    }
+
+    /**
+     * Indexes of entries in <code>sortBy</code> order, folders before files
+     * when ascending and after files when descending.
+     *
+     * @param sortBy One of the sort modes of <code>FileBrowser</code>
+     * @return Sorted indexes, not to be modified
+     */
+    synchronized int[] getSortedIndexes(int sortBy) {
+        if (sortedIndexes[sortBy] == null)
+            sortedIndexes[sortBy] = sort(sortBy);
+        return sortedIndexes[sortBy];
+    }
+
+    private int[] sort(final int sortBy) {
+        int[] indexes = new int[files.length];
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = i;
+
+        final boolean isFoldersFirst = sortBy == FileBrowser.NAME_ASCENDING
+            || sortBy == FileBrowser.DATE_ASCENDING;
+
+        IndexComparator comparator = new IndexComparator() {
+            @Override
+            public int compare(int first, int second) {
+                if (isFolder[first] != isFolder[second])
+                    return isFolder[first] == isFoldersFirst ? -1 : 1;
+
+                if (sortBy == FileBrowser.DATE_ASCENDING)
+                    return Long.compare(modifiedTimes[first], modifiedTimes[second]);
+                if (sortBy == FileBrowser.DATE_DESCENDING)
+                    return Long.compare(modifiedTimes[second], modifiedTimes[first]);
+
+                return FileNameComparator.compareNames(names[first], names[second],
+                    sortBy == FileBrowser.NAME_ASCENDING);
+            }
+        };
+
+        // Stable sort, entries with equal keys stay in listing order
+        mergeSort(indexes, new int[indexes.length], 0, indexes.length, comparator);
+        return indexes;
+    }
+
+    private interface IndexComparator {
+        int compare(int first, int second);
+    }
+
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    /**
+     * Stable merge sort of <code>indexes[from, to)</code> on primitive ints,
+     * so indexes are never boxed. <code>buffer</code> is as long as 
+     * <code>indexes</code> and holds the left half while merging.
+     */
+    private static void mergeSort(int[] indexes, int[] buffer, int from, int to,
+            IndexComparator comparator) {
+        if (to - from <= INSERTION_SORT_SIZE) {
+            for (int i = from + 1; i < to; i++) {
+                int index = indexes[i];
+                int j = i;
+                while (j > from && comparator.compare(index, indexes[j - 1]) < 0) {
+                    indexes[j] = indexes[j - 1];
+                    j--;
+                }
+                indexes[j] = index;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        mergeSort(indexes, buffer, from, middle, comparator);
+        mergeSort(indexes, buffer, middle, to, comparator);
+
+        // Halves already in order, e.g folder listed in sorted order
+        if (comparator.compare(indexes[middle - 1], indexes[middle]) <= 0)
+            return;
+
+        // Right entry only goes first if strictly smaller, keeping it stable
+        System.arraycopy(indexes, from, buffer, from, middle - from);
+        int left = from;
+        int right = middle;
+        int out = from;
+        while (left < middle && right < to) {
+            if (comparator.compare(indexes[right], buffer[left]) < 0)
+                indexes[out++] = indexes[right++];
+            else
+                indexes[out++] = buffer[left++];
+        }
+        while (left < middle)
+            indexes[out++] = buffer[left++];
+    }
+}
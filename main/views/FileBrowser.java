@@ -1,21 +1,32 @@
 package main.views;
 
+import java.awt.Point;
 import java.awt.event.MouseListener;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.JScrollPane;
 import javax.swing.JTree;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
 
 import main.ComplierState;
+import main.MainWindow;
 import main.misc.FileNameComparator;
-
-import javax.swing.filechooser.FileSystemView;
+import main.utility.TaskUtil;
 
 public class FileBrowser extends JScrollPane {
     public final static int NAME_ASCENDING = 0;
@@ -23,104 +34,562 @@ public class FileBrowser extends JScrollPane {
     public final static int DATE_ASCENDING = 2;
     public final static int DATE_DESCENDING = 3;
 
+    private final static String LOADING_TEXT = "Loading...";
+    private final static int MAX_CACHED_FOLDERS = 16;
+
 	private JTree tree;
-	private FileSystemView fileSystemView = FileSystemView.getFileSystemView();
 
-    private MouseListener mouseListener;
+    // Tree is kept and updated in place so selection and scroll are kept
+    private DefaultMutableTreeNode root = new DefaultMutableTreeNode();
+    private DefaultTreeModel treeModel = new DefaultTreeModel(root);
+    private FolderNode folderNode = null;
+    private int sortBy = NAME_ASCENDING;
+
+    // Sub folders are listed in the background when first expanded
+    private final ExecutorService listingExecutor = TaskUtil.newSingleThreadExecutor("Folder Listing");
+
+    // Current folder is listed again in the background when it changes
+    private final ExecutorService refreshExecutor = TaskUtil.newSingleThreadExecutor("Folder Refresh");
+    private Future<?> folderRefresh = null;
+    private long refreshGeneration = 0;
+
+    // Snapshots of recently shown folders, least recently used dropped
+    // first. Only accessed while synchronized on it
+    private final Map<String, DirectorySnapshot> snapshotCache = new LinkedHashMap<String, DirectorySnapshot>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DirectorySnapshot> eldest) {
+            return size() > MAX_CACHED_FOLDERS;
+        }
+    };
+
+    /**
+     * Node of a folder. Its files are only listed when it is first expanded
+     * and kept afterwards, so expanding it again does not list it again.
+     */
+    private static class FolderNode extends DefaultMutableTreeNode {
+        private static final long serialVersionUID = 1L;
+
+        boolean isLoaded = false;
+        boolean isLoading = false;
+
+        FolderNode(File folder) {
+            super(folder, true);
+        }
+    }
 
     public FileBrowser(String path) {
+		tree = new JTree(treeModel);
+		tree.setRootVisible(false);
+		// tree.setVisibleRowCount(15);
+		tree.setCellRenderer(new FileItemRenderer());
+		this.setViewportView(tree);
+
+        // Folders show an expand handle before their files are listed
+        treeModel.setAsksAllowsChildren(true);
+        tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                Object node = event.getPath().getLastPathComponent();
+                if (node instanceof FolderNode)
+                    loadFolder((FolderNode) node);
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
+            }
+        });
+
         buildTreeFromPath(path);
     }
 
     public void buildTreeFromPath(String path) {
         buildTreeFromPath(path, ComplierState.fileSortBy);
     }
-	
+
 	public void buildTreeFromPath(String path, int sortBy) {
         if (path == null || path.isEmpty()) return;
 
-		File currentDir = new File(path);
+		File currentDir = new File(path).getAbsoluteFile();
         if (!currentDir.exists() || !currentDir.isDirectory()) return;
 
-		File[] root = { currentDir };
-		buildTree(root, sortBy);
+        List<DefaultMutableTreeNode> nodes = new ArrayList<DefaultMutableTreeNode>();
+        try {
+            nodes = listFolder(currentDir, sortBy);
+        } catch (IOException e) {
+            System.out.println("Error listing folder: " + currentDir.getAbsolutePath());
+            MainWindow.consoleLog("Error listing folder: " + currentDir.getAbsolutePath());
+        }
+		showFolder(new FolderListing(currentDir, sortBy, nodes));
 	}
-	
-	private void buildTree(File[] roots, int sortBy) {		
-		DefaultMutableTreeNode root = new DefaultMutableTreeNode();
-		DefaultTreeModel treeModel = new DefaultTreeModel(root);
-		
-		// show the file system roots.
-		for (File fileSystemRoot : roots) {
-			DefaultMutableTreeNode node = new DefaultMutableTreeNode(fileSystemRoot);
-			root.add(node);
-
-			File[] files = fileSystemView.getFiles(fileSystemRoot, true);
-
-            List<File> filesList = new ArrayList<File>();
-            List<File> foldersList = new ArrayList<File>();
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    foldersList.add(file);
-                } else if (file.isFile()) {
-                    filesList.add(file);
-                }
-            }
 
-            if (sortBy == NAME_ASCENDING) {
-                Collections.sort(filesList, new FileNameComparator(true));
-                Collections.sort(foldersList, new FileNameComparator(true));
-
-            } else if (sortBy == NAME_DESCENDING) {
-                Collections.sort(filesList, new FileNameComparator(false));
-                Collections.sort(foldersList, new FileNameComparator(false));
-
-            } else if (sortBy == DATE_ASCENDING) {
-                Collections.sort(
-                    filesList, 
-                    (first, second) -> Long.compare(first.lastModified(), second.lastModified()));
-                Collections.sort(
-                    foldersList, 
-                    (first, second) -> Long.compare(first.lastModified(), second.lastModified()));
-
-            } else if (sortBy == DATE_DESCENDING) {
-                Collections.sort(
-                    filesList, 
-                    (first, second) -> Long.compare(second.lastModified(), first.lastModified()));
-                Collections.sort(
-                    foldersList, 
-                    (first, second) -> Long.compare(second.lastModified(), first.lastModified()));
-            }
+    /**
+     * Sorted files of a folder, listed with <code>readFolder</code> and
+     * ready to be shown with <code>showFolder</code>.
+     */
+    public static class FolderListing {
+        private final File folder;
+        private final int sortBy;
+        private final List<DefaultMutableTreeNode> nodes;
 
-            if (sortBy == NAME_ASCENDING || sortBy == DATE_ASCENDING) {
-                for (File file : foldersList) 
-                    node.add(new DefaultMutableTreeNode(file));
-                for (File file : filesList) 
-                    node.add(new DefaultMutableTreeNode(file));
-            } else {
-                for (File file : filesList) 
-                    node.add(new DefaultMutableTreeNode(file));
-                for (File file : foldersList) 
-                    node.add(new DefaultMutableTreeNode(file));
-            }
-		}
+        private FolderListing(File folder, int sortBy, List<DefaultMutableTreeNode> nodes) {
+            this.folder = folder;
+            this.sortBy = sortBy;
+            this.nodes = nodes;
+        }
 
-		tree = new JTree(treeModel);
-		tree.setRootVisible(false);
-		// tree.setVisibleRowCount(15);
-		tree.setCellRenderer(new FileItemRenderer());
+        public File getFolder() {
+            return folder;
+        }
+    }
+
+    /**
+     * Check that <code>path</code> is a folder and list it. Can be slow
+     * for large or network folders, so may be called from any thread.
+     *
+     * @param path Path of folder to list
+     * @param sortBy Sort mode of listing
+     * @return Listing of folder or null if path is not a folder
+     * @throws IOException if folder cannot be listed or listing is cancelled
+     */
+    public FolderListing readFolder(String path, int sortBy) throws IOException {
+        if (path == null || path.isEmpty()) return null;
+
+        File folder = new File(path).getAbsoluteFile();
+        if (!folder.exists() || !folder.isDirectory()) return null;
+
+        return new FolderListing(folder, sortBy, listFolder(folder, sortBy));
+    }
+
+    /**
+     * Show folder listed with <code>readFolder</code>. Selection and
+     * scroll position are kept when showing the same folder again.
+     *
+     * @param listing Listing of folder to show
+     */
+	public void showFolder(FolderListing listing) {
+        boolean isSameFolder = folderNode != null && listing.folder.equals(getFolder());
+        File selectedFile = isSameFolder ? getSelectedFile() : null;
+        Point viewPosition = isSameFolder ? getViewport().getViewPosition() : new Point(0, 0);
+
+        this.sortBy = listing.sortBy;
+        root.removeAllChildren();
+
+        folderNode = new FolderNode(listing.folder);
+        root.add(folderNode);
+        for (DefaultMutableTreeNode child : listing.nodes)
+            folderNode.add(child);
+        folderNode.isLoaded = true;
+
+        treeModel.reload();
 		tree.expandRow(0);
 
-        // Re-initialise previous mouse listener
-        if (mouseListener != null) {
-            tree.addMouseListener(mouseListener);
+        if (selectedFile != null) {
+            DefaultMutableTreeNode selectedNode = findNode(selectedFile);
+            if (selectedNode != null)
+                tree.setSelectionPath(new TreePath(selectedNode.getPath()));
         }
-		
-		this.setViewportView(tree);
+        getViewport().setViewPosition(viewPosition);
 	}
 
+    /**
+     * List files and folders of <code>folder</code> as sorted tree nodes.
+     * Safe to call from any thread as nodes are not in the tree yet.
+     */
+    private List<DefaultMutableTreeNode> listFolder(File folder, int sortBy) throws IOException {
+        DirectorySnapshot snapshot = getSnapshot(folder);
+        int[] sortedIndexes = snapshot.getSortedIndexes(sortBy);
+
+        List<DefaultMutableTreeNode> nodes = new ArrayList<DefaultMutableTreeNode>(sortedIndexes.length);
+        for (int index : sortedIndexes) {
+            if (snapshot.isFolder[index])
+                nodes.add(new FolderNode(snapshot.files[index]));
+            else
+                nodes.add(new DefaultMutableTreeNode(snapshot.files[index], false));
+        }
+        return nodes;
+    }
+
+    /**
+     * Cached snapshot of <code>folder</code> if folder is unchanged since,
+     * otherwise list folder again.
+     */
+    private DirectorySnapshot getSnapshot(File folder) throws IOException {
+        // Read before listing so changes made while listing are noticed next time
+        long lastModified = folder.lastModified();
+        String key = folder.getAbsolutePath();
+
+        DirectorySnapshot snapshot;
+        synchronized (snapshotCache) {
+            snapshot = snapshotCache.get(key);
+        }
+        if (snapshot != null && snapshot.lastModified == lastModified && lastModified != 0)
+            return snapshot;
+
+        snapshot = DirectorySnapshot.read(folder, lastModified);
+        synchronized (snapshotCache) {
+            snapshotCache.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drop cached listing of <code>folder</code> after its files changed.
+     * Modified times of a folder may be too coarse to notice quick changes.
+     *
+     * @param folder Folder whose files were added, changed or removed
+     */
+    public void invalidateFolder(File folder) {
+        if (folder == null)
+            return;
+
+        synchronized (snapshotCache) {
+            snapshotCache.remove(folder.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Drop all cached listings so folders are listed again when shown.
+     */
+    public void clearListingCache() {
+        synchronized (snapshotCache) {
+            snapshotCache.clear();
+        }
+    }
+
+    /**
+     * List files of <code>node</code> in the background the first time it
+     * is expanded. "Loading..." is shown under the folder until then.
+     */
+    private void loadFolder(final FolderNode node) {
+        if (node.isLoaded || node.isLoading)
+            return;
+
+        node.isLoading = true;
+        node.add(new DefaultMutableTreeNode(LOADING_TEXT, false));
+        treeModel.nodeStructureChanged(node);
+
+        final File folder = (File) node.getUserObject();
+        final int listedSortBy = sortBy;
+        TaskUtil.runInBackground(listingExecutor,
+            () -> listFolder(folder, listedSortBy),
+            (nodes) -> {
+                node.isLoading = false;
+
+                // Tree was rebuilt while listing, or sorted differently
+                if (node.getRoot() != root || listedSortBy != sortBy) {
+                    node.removeAllChildren();
+                    treeModel.nodeStructureChanged(node);
+                    return;
+                }
+
+                TreePath path = new TreePath(node.getPath());
+                boolean isExpanded = tree.isExpanded(path);
+
+                node.removeAllChildren();
+                for (DefaultMutableTreeNode child : nodes)
+                    node.add(child);
+                node.isLoaded = true;
+                treeModel.nodeStructureChanged(node);
+
+                if (isExpanded)
+                    tree.expandPath(path);
+            },
+            (error) -> {
+                node.isLoading = false;
+                node.removeAllChildren();
+                treeModel.nodeStructureChanged(node);
+
+                System.out.println("Error listing folder: " + folder.getAbsolutePath());
+                MainWindow.consoleLog("Error listing folder: " + folder.getAbsolutePath());
+            });
+    }
+
+    /**
+     * List current folder again in the background, keeping selection and 
+     * scroll position. Does nothing if another folder is shown by then, 
+     * only the latest refresh is shown.
+     *
+     * @param folder Folder that needs to be listed again
+     */
+    public void refreshFolder(File folder) {
+        if (folderNode == null || !getFolder().equals(folder.getAbsoluteFile()))
+            return;
+
+        invalidateFolder(folder);
+        if (folderRefresh != null)
+            folderRefresh.cancel(false);
+
+        final long generation = ++refreshGeneration;
+        final String path = getFolder().getPath();
+        final int refreshSortBy = sortBy;
+        folderRefresh = TaskUtil.runInBackground(refreshExecutor,
+            () -> readFolder(path, refreshSortBy),
+            (listing) -> {
+                // Newer refresh started, or another folder or sort is shown now
+                if (generation != refreshGeneration || listing == null || folderNode == null
+                        || !listing.getFolder().equals(getFolder()) || listing.sortBy != sortBy)
+                    return;
+
+                showFolder(listing);
+            },
+            (error) -> {
+                if (generation != refreshGeneration)
+                    return;
+
+                System.out.println("Error listing folder: " + path);
+                MainWindow.consoleLog("Error listing folder: " + path);
+            });
+    }
+
+    private static Comparator<File> getComparator(int sortBy) {
+        if (sortBy == NAME_DESCENDING) {
+            return new FileNameComparator(false);
+
+        } else if (sortBy == DATE_ASCENDING) {
+            return (first, second) -> Long.compare(first.lastModified(), second.lastModified());
+
+        } else if (sortBy == DATE_DESCENDING) {
+            return (first, second) -> Long.compare(second.lastModified(), first.lastModified());
+        }
+
+        return new FileNameComparator(true);
+    }
+
+    // Folders are listed before files when sorting in ascending order
+    private static boolean isFoldersFirst(int sortBy) {
+        return sortBy == NAME_ASCENDING || sortBy == DATE_ASCENDING;
+    }
+
+    /**
+     * Show new <code>file</code> at its sorted position, or move it to its
+     * new sorted position if already shown (e.g overwritten file). Files
+     * outside current folder and its listed sub folders are ignored.
+     *
+     * <p>
+     * A folder already shown keeps its node, so its listed files,
+     * expansion and selection stay. It is only moved when sorted by date,
+     * as a folder is modified whenever a file in it is added or removed.
+     * </p>
+     *
+     * @param file File or folder added
+     */
+    public void addFile(File file) {
+        file = file.getAbsoluteFile();
+        invalidateFolder(file.getParentFile());
+
+        DefaultMutableTreeNode parentNode = findFolderNode(file.getParentFile());
+        if (parentNode == null)
+            return;
+
+        DefaultMutableTreeNode existingNode = findChild(parentNode, file);
+        if (existingNode instanceof FolderNode && file.isDirectory()) {
+            if (sortBy == DATE_ASCENDING || sortBy == DATE_DESCENDING)
+                moveFolderNode(parentNode, (FolderNode) existingNode);
+            return;
+        }
+
+        boolean wasSelected = existingNode != null && file.equals(getSelectedFile());
+        if (existingNode != null)
+            treeModel.removeNodeFromParent(existingNode);
+
+        boolean isFolder = file.isDirectory();
+        DefaultMutableTreeNode node = isFolder
+            ? new FolderNode(file) : new DefaultMutableTreeNode(file, false);
+        treeModel.insertNodeInto(node, parentNode, findInsertIndex(parentNode, file, isFolder));
+
+        if (wasSelected)
+            tree.setSelectionPath(new TreePath(node.getPath()));
+    }
+
+    /**
+     * Move shown folder to its sorted position, keeping its children and 
+     * which of them are expanded or selected.
+     */
+    private void moveFolderNode(DefaultMutableTreeNode parentNode, FolderNode node) {
+        TreePath path = new TreePath(node.getPath());
+        List<TreePath> expandedPaths = new ArrayList<TreePath>();
+        Enumeration<TreePath> expanded = tree.getExpandedDescendants(path);
+        if (expanded != null)
+            expandedPaths.addAll(Collections.list(expanded));
+
+        List<TreePath> selectedPaths = new ArrayList<TreePath>();
+        TreePath[] selection = tree.getSelectionPaths();
+        if (selection != null) {
+            for (TreePath selectedPath : selection) {
+                if (path.isDescendant(selectedPath))
+                    selectedPaths.add(selectedPath);
+            }
+        }
+
+        File folder = (File) node.getUserObject();
+        treeModel.removeNodeFromParent(node);
+        treeModel.insertNodeInto(node, parentNode, findInsertIndex(parentNode, folder, true));
+
+        // Same nodes, so paths from before the move are still valid
+        for (TreePath expandedPath : expandedPaths)
+            tree.expandPath(expandedPath);
+        for (TreePath selectedPath : selectedPaths)
+            tree.addSelectionPath(selectedPath);
+    }
+
+    /**
+     * Remove <code>file</code> from tree if shown.
+     *
+     * @param file File or folder removed
+     */
+    public void removeFile(File file) {
+        invalidateFolder(file.getAbsoluteFile().getParentFile());
+
+        DefaultMutableTreeNode node = findNode(file.getAbsoluteFile());
+        if (node != null)
+            treeModel.removeNodeFromParent(node);
+    }
+
+    /**
+     * Move renamed file to the sorted position of its new name.
+     *
+     * @param file File before rename
+     * @param renamedFile File after rename
+     */
+    public void renameFile(File file, File renamedFile) {
+        removeFile(renamedFile);
+        removeFile(file);
+        addFile(renamedFile);
+    }
+
+    /**
+     * Files next to <code>file</code> in the order shown, nearest first and
+     * alternating between the file below and the file above. Folders are
+     * skipped.
+     *
+     * @param file File shown in tree
+     * @param count Maximum number of files on each side
+     * @return Neighbouring files, empty if <code>file</code> is not shown
+     */
+    public List<File> getNeighbourFiles(File file, int count) {
+        List<File> neighbourFiles = new ArrayList<File>();
+
+        // Usually the selected file, found without searching its folder
+        DefaultMutableTreeNode node = (DefaultMutableTreeNode) tree.getLastSelectedPathComponent();
+        if (node == null || !file.equals(node.getUserObject()))
+            node = findNode(file.getAbsoluteFile());
+        if (node == null || node.getParent() == null)
+            return neighbourFiles;
+
+        DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode) node.getParent();
+        int index = parentNode.getIndex(node);
+        for (int distance = 1; distance <= count; distance++) {
+            addFileAt(parentNode, index + distance, neighbourFiles);
+            addFileAt(parentNode, index - distance, neighbourFiles);
+        }
+        return neighbourFiles;
+    }
+
+    private static void addFileAt(DefaultMutableTreeNode parentNode, int index, List<File> files) {
+        if (index < 0 || index >= parentNode.getChildCount())
+            return;
+
+        DefaultMutableTreeNode node = (DefaultMutableTreeNode) parentNode.getChildAt(index);
+        if (!node.getAllowsChildren() && node.getUserObject() instanceof File)
+            files.add((File) node.getUserObject());
+    }
+
+    /**
+     * Binary search for position of <code>file</code> among the files or
+     * folders of <code>parentNode</code>.
+     */
+    private int findInsertIndex(DefaultMutableTreeNode parentNode, File file, boolean isFolder) {
+        int folderCount = countFolders(parentNode);
+        int childCount = parentNode.getChildCount();
+
+        // Range of children in the same group (folders or files) as file
+        int groupSize = isFolder ? folderCount : childCount - folderCount;
+        int low, high;
+        if (isFolder == isFoldersFirst(sortBy)) {
+            low = 0;
+            high = groupSize;
+        } else {
+            low = childCount - groupSize;
+            high = childCount;
+        }
+
+        Comparator<File> comparator = getComparator(sortBy);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            File middleFile = getChildFile(parentNode, middle);
+            if (comparator.compare(middleFile, file) <= 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    // Folders and files are each grouped together, binary search for boundary
+    private int countFolders(DefaultMutableTreeNode parentNode) {
+        boolean isFoldersFirst = isFoldersFirst(sortBy);
+        int low = 0;
+        int high = parentNode.getChildCount();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            boolean isFolder = ((DefaultMutableTreeNode) parentNode.getChildAt(middle)).getAllowsChildren();
+            if (isFolder == isFoldersFirst)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return isFoldersFirst ? low : parentNode.getChildCount() - low;
+    }
+
+    private static File getChildFile(DefaultMutableTreeNode parentNode, int index) {
+        return (File) ((DefaultMutableTreeNode) parentNode.getChildAt(index)).getUserObject();
+    }
+
+    /**
+     * Node of <code>folder</code> if it is current folder or a sub folder
+     * that has been listed.
+     */
+    private FolderNode findFolderNode(File folder) {
+        if (folderNode == null || folder == null)
+            return null;
+
+        if (folder.equals(getFolder()))
+            return folderNode;
+
+        DefaultMutableTreeNode node = findNode(folder);
+        if (node instanceof FolderNode && ((FolderNode) node).isLoaded)
+            return (FolderNode) node;
+        return null;
+    }
+
+    private DefaultMutableTreeNode findNode(File file) {
+        DefaultMutableTreeNode parentNode = findFolderNode(file.getParentFile());
+        return parentNode == null ? null : findChild(parentNode, file);
+    }
+
+    private static DefaultMutableTreeNode findChild(DefaultMutableTreeNode parentNode, File file) {
+        for (int i = 0; i < parentNode.getChildCount(); i++) {
+            if (getChildFile(parentNode, i).equals(file))
+                return (DefaultMutableTreeNode) parentNode.getChildAt(i);
+        }
+        return null;
+    }
+
+    private File getFolder() {
+        return (File) folderNode.getUserObject();
+    }
+
+    private File getSelectedFile() {
+        DefaultMutableTreeNode node = (DefaultMutableTreeNode) tree.getLastSelectedPathComponent();
+        if (node == null || !(node.getUserObject() instanceof File))
+            return null;
+        return (File) node.getUserObject();
+    }
+
     public void addTreeMouseListener(MouseListener listener) {
-        mouseListener = listener;
         tree.addMouseListener(listener);
     }
 
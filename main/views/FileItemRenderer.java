@@ -2,7 +2,10 @@ package main.views;
 
 import java.awt.Component;
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import javax.swing.Icon;
 import javax.swing.JLabel;
 import javax.swing.JTree;
 import javax.swing.filechooser.FileSystemView;
@@ -10,9 +13,21 @@ import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeCellRenderer;
 
 class FileItemRenderer extends DefaultTreeCellRenderer {
+    private static final int MAX_CACHED_ICONS = 64;
+    private static final String FOLDER_ICON_KEY = "/";
+
     private FileSystemView fileSystemView;
     private JLabel label;
 
+    // System icons by file type, as looking them up is slow and every row
+    // is rendered again while scrolling. Least recently used dropped first
+    private Map<String, Icon> iconCache = new LinkedHashMap<String, Icon>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Icon> eldest) {
+            return size() > MAX_CACHED_ICONS;
+        }
+    };
+
     FileItemRenderer() {
         label = new JLabel();
         label.setOpaque(true);
@@ -30,10 +45,17 @@ class FileItemRenderer extends DefaultTreeCellRenderer {
         boolean hasFocus) {
 
         DefaultMutableTreeNode node = (DefaultMutableTreeNode)value;
-        File file = (File) node.getUserObject();
-        label.setIcon(fileSystemView.getSystemIcon(file));
-        label.setText(fileSystemView.getSystemDisplayName(file));
-        label.setToolTipText(file.getPath());
+        if (node.getUserObject() instanceof File) {
+            File file = (File) node.getUserObject();
+            label.setIcon(getIcon(file, node.getAllowsChildren()));
+            label.setText(fileSystemView.getSystemDisplayName(file));
+            label.setToolTipText(file.getPath());
+        } else {
+            // Hidden root of the tree and "Loading..." have no file
+            label.setIcon(null);
+            label.setText(node.getUserObject() == null ? "" : node.getUserObject().toString());
+            label.setToolTipText(null);
+        }
 
         if (selected) {
             label.setBackground(backgroundSelectionColor);
@@ -45,4 +67,43 @@ class FileItemRenderer extends DefaultTreeCellRenderer {
 
         return label;
     }
+
+    /**
+     * System icon of <code>file</code>, shared by all folders and by all
+     * files with the same extension. Files that can have their own icon
+     * (e.g programs and shortcuts) are always looked up.
+     *
+     * @param file File or folder to show
+     * @param isFolder true if <code>file</code> is a folder
+     * @return Icon to show for file
+     */
+    private Icon getIcon(File file, boolean isFolder) {
+        String key = isFolder ? FOLDER_ICON_KEY : getExtension(file);
+        if (key == null)
+            return fileSystemView.getSystemIcon(file);
+
+        if (iconCache.containsKey(key))
+            return iconCache.get(key);
+
+        Icon icon = fileSystemView.getSystemIcon(file);
+        iconCache.put(key, icon);
+        return icon;
+    }
+
+    // Lower case extension, or null for files that can have their own icon
+    private static String getExtension(File file) {
+        String fileName = file.getName();
+        int dotIndex = fileName.lastIndexOf('.');
+        String extension = (dotIndex == -1) ? "" : fileName.substring(dotIndex + 1).toLowerCase();
+
+        switch (extension) {
+            case "exe":
+            case "lnk":
+            case "ico":
+            case "url":
+                return null;
+            default:
+                return extension;
+        }
+    }
 }
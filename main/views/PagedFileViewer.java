@@ -0,0 +1,748 @@
+package main.views;
+
+import java.awt.Point;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import javax.swing.JComponent;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.border.TitledBorder;
+import javax.swing.text.BadLocationException;
+
+import main.MainWindow;
+import main.utility.FileUtil;
+import main.utility.TaskUtil;
+
+/**
+ * <p>
+ * Shows a large text file in the file viewer one page at a time, so only
+ * the lines around the visible part of the file are read and decoded.
+ * Scrolling close to the top or bottom of a page slides the page by half
+ * its size, which costs the same regardless of file size.
+ * </p>
+ *
+ * <p>
+ * A second scroll bar spans the whole file, so any part of it can be
+ * jumped to. A sparse index of line offsets is built in the background;
+ * once complete, scroll bar positions are lines, found from the nearest
+ * index entry. Until then they are kilobytes of the file.
+ * </p>
+ */
+public class PagedFileViewer implements AdjustmentListener {
+    // Files larger than this are shown one page at a time
+    public final static long PAGED_FILE_SIZE = 1024 * 1024;
+
+    private final static int PAGE_SIZE = 256 * 1024;
+    private final static int MAX_LINE_LENGTH = 16 * 1024;
+    private final static int INDEX_INTERVAL = 1024;
+    private final static int SCAN_BUFFER_SIZE = 1024 * 1024;
+
+    // Estimate of bytes needed to fill a few screens at the end of a file
+    private final static int TAIL_SCREENS = 3;
+    private final static int TAIL_LINE_LENGTH = 256;
+    private final static int MIN_TAIL_SIZE = 16 * 1024;
+
+    private JTextArea textArea;
+    private JScrollPane scrollPane;
+    private JComponent titledComponent;
+    private TitledBorder titledBorder;
+    private String title;
+
+    private File file = null;
+    private FileChannel channel = null;
+
+    // Text of files read, shared by all threads reading previews
+    private final PreviewCache previewCache = new PreviewCache();
+    private long fileSize = 0;
+    private long pageStart = 0;
+    private long pageEnd = 0;
+    private boolean isSliding = false;
+    private long pageFirstLine = -1; // Line number of page start, once indexed
+
+    // Position in whole file, shown next to scroll pane while paging
+    private final JScrollBar fileScrollBar = new JScrollBar(JScrollBar.VERTICAL);
+    private boolean isUpdatingFileScrollBar = false;
+
+    private final ExecutorService indexExecutor = TaskUtil.newSingleThreadExecutor("Line Index");
+    private LineIndex lineIndex = null;
+
+    /**
+     * Offsets of every <code>INDEX_INTERVAL</code>th line start, filled in
+     * by a background thread.
+     */
+    private static class LineIndex {
+        private long[] offsets = new long[1024];
+        private int offsetCount = 0;
+        private long lineCount = 0;
+        private boolean isComplete = false;
+        private volatile boolean isCancelled = false;
+
+        synchronized void add(long offset) {
+            if (offsetCount == offsets.length)
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[offsetCount++] = offset;
+        }
+
+        synchronized void complete(long lineCount) {
+            this.lineCount = lineCount;
+            this.isComplete = true;
+        }
+
+        synchronized boolean isComplete() {
+            return isComplete;
+        }
+
+        synchronized long getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * @return Index of last entry at or before <code>offset</code>
+         */
+        synchronized int findEntry(long offset) {
+            int index = Arrays.binarySearch(offsets, 0, offsetCount, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        synchronized long getOffset(int entry) {
+            return offsets[entry];
+        }
+
+        synchronized int getEntryCount() {
+            return offsetCount;
+        }
+    }
+
+    public PagedFileViewer(JTextArea textArea, JScrollPane scrollPane, JComponent titledComponent) {
+        this.textArea = textArea;
+        this.scrollPane = scrollPane;
+        this.titledComponent = titledComponent;
+        this.titledBorder = (TitledBorder) titledComponent.getBorder();
+        this.title = titledBorder.getTitle();
+
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(this);
+
+        fileScrollBar.setVisible(false);
+        fileScrollBar.addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                if (!isUpdatingFileScrollBar)
+                    jumpTo(e.getValue());
+            }
+        });
+    }
+
+    /**
+     * Scroll bar over the whole paged file, to be placed next to the
+     * scroll pane. Hidden unless a file is paged.
+     */
+    public JScrollBar getFileScrollBar() {
+        return fileScrollBar;
+    }
+
+    /**
+     * Contents of a file read with <code>readPreview</code>, either the
+     * whole file or the first page shown of a large text file.
+     */
+    public static class Preview {
+        private final File file;
+        private final boolean fromEnd;
+        private final String text;
+
+        // Only set for paged files
+        private final FileChannel channel;
+        private final long fileSize;
+        private final long pageStart;
+        private final long pageEnd;
+
+        private Preview(File file, boolean fromEnd, String text, FileChannel channel,
+                long fileSize, long pageStart, long pageEnd) {
+            this.file = file;
+            this.fromEnd = fromEnd;
+            this.text = text;
+            this.channel = channel;
+            this.fileSize = fileSize;
+            this.pageStart = pageStart;
+            this.pageEnd = pageEnd;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return true if file is too large to be read whole
+         */
+        public boolean isPaged() {
+            return channel != null;
+        }
+
+        /**
+         * Release file of a preview that will not be shown.
+         */
+        public void close() {
+            if (channel == null)
+                return;
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Bytes read from end of file when showing the bottom of a file, 
+     * enough for a few screens of lines in the file viewer. Must be called
+     * on the Swing thread as it depends on the size of the viewer.
+     *
+     * @return Size of end of file read in bytes
+     */
+    public int getTailSize() {
+        int lineHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+        int visibleLines = scrollPane.getViewport().getHeight() / Math.max(1, lineHeight);
+
+        int tailSize = visibleLines * TAIL_SCREENS * TAIL_LINE_LENGTH;
+        return Math.max(MIN_TAIL_SIZE, Math.min(tailSize, PAGE_SIZE));
+    }
+
+    /**
+     * <p>
+     * Read <code>file</code> to be shown with <code>showPreview</code>.
+     * Does not change the viewer, so it can be called from any thread.
+     * </p>
+     *
+     * <p>
+     * Text files are paged from the top once larger than
+     * <code>PAGED_FILE_SIZE</code>. From the bottom, only
+     * <code>tailSize</code> bytes of the end of file are read, so any file
+     * larger than that is paged.
+     * </p>
+     *
+     * <p>
+     * Text read is cached until the file changes, reading a cached file
+     * only checks its modified time and size.
+     * </p>
+     *
+     * @param file File to be shown
+     * @param fromEnd true to show the end of file instead of the start
+     * @param tailSize Result of <code>getTailSize</code>
+     * @return Preview of file
+     * @throws IOException if file cannot be read
+     */
+    public Preview readPreview(File file, boolean fromEnd, int tailSize) throws IOException {
+        if (!FileUtil.isTxtFile(file))
+            return new Preview(file, fromEnd, "", null, 0, 0, 0);
+
+        // Read before the file, a change while reading makes the cached
+        // text outdated instead of wrongly up to date
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        PreviewCache.Entry cached = previewCache.get(file, fromEnd, lastModified, length);
+        if (cached != null && !cached.isPaged)
+            return new Preview(file, fromEnd, cached.text, null, 0, 0, 0);
+
+        boolean isPaged = length > (fromEnd ? tailSize : PAGED_FILE_SIZE);
+        if (!isPaged) {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            previewCache.put(file, new PreviewCache.Entry(text, lastModified, length, false, fromEnd, 0, 0));
+            return new Preview(file, fromEnd, text, null, 0, 0, 0);
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+
+            // Cached page is still needed to page the rest of the file
+            if (cached != null && fileSize == cached.length)
+                return new Preview(file, fromEnd, cached.text, channel, fileSize, cached.pageStart, cached.pageEnd);
+
+            long start = fromEnd ? findLineStart(channel, Math.max(0, fileSize - tailSize)) : 0;
+            long end = findPageEnd(channel, fileSize, start);
+            String text = readText(channel, start, end);
+
+            if (fileSize == length)
+                previewCache.put(file, new PreviewCache.Entry(text, lastModified, length, true, fromEnd, start, end));
+            return new Preview(file, fromEnd, text, channel, fileSize, start, end);
+
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read <code>file</code> again next time it is shown, as it was saved,
+     * renamed or deleted.
+     *
+     * @param file File changed by this program
+     */
+    public void invalidatePreview(File file) {
+        previewCache.remove(file);
+    }
+
+    /**
+     * Show file read with <code>readPreview</code>. Large files are paged
+     * from then on and their line index is built in the background.
+     *
+     * @param preview Preview of file to show
+     */
+    public void showPreview(Preview preview) {
+        close();
+
+        if (!preview.isPaged()) {
+            textArea.setText(preview.text);
+            return;
+        }
+
+        channel = preview.channel;
+        fileSize = preview.fileSize;
+        file = preview.file;
+
+        showText(preview.text, preview.pageStart, preview.pageEnd,
+            preview.fromEnd ? Integer.MAX_VALUE : 0);
+        buildLineIndex(file);
+    }
+
+    /**
+     * Stop paging current file, if any. Text area is left unchanged.
+     */
+    public void close() {
+        if (lineIndex != null)
+            lineIndex.isCancelled = true;
+        lineIndex = null;
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        channel = null;
+        file = null;
+        pageFirstLine = -1;
+        updateTitle();
+        fileScrollBar.setVisible(false);
+    }
+
+    public boolean isOpen() {
+        return file != null;
+    }
+
+    /**
+     * @return File being paged or null if none
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Slide page when scrolled close to its top or bottom edge and the file
+     * has more lines in that direction.
+     */
+    @Override
+    public void adjustmentValueChanged(AdjustmentEvent e) {
+        if (file == null || isSliding)
+            return;
+
+        int value = e.getAdjustable().getValue();
+        int extent = e.getAdjustable().getVisibleAmount();
+        int maximum = e.getAdjustable().getMaximum();
+
+        try {
+            isSliding = true;
+            if (value + extent >= maximum - extent && pageEnd < fileSize) {
+                long start = findNextLineStart(channel, fileSize, pageStart + PAGE_SIZE / 2);
+                int droppedLines = countLines(channel, pageStart, start);
+                showPage(start, getTopLine() - droppedLines);
+
+            } else if (value <= extent && pageStart > 0) {
+                long start = findLineStart(channel, Math.max(0, pageStart - PAGE_SIZE / 2));
+                int addedLines = countLines(channel, start, pageStart);
+                showPage(start, getTopLine() + addedLines);
+            }
+
+        } catch (IOException error) {
+            error.printStackTrace();
+            MainWindow.consoleLog("Error reading file: " + file);
+
+        } finally {
+            isSliding = false;
+        }
+        updateFileScrollBar();
+    }
+
+    /**
+     * Show the part of file at <code>position</code> of file scroll bar.
+     * The page is only replaced when position is not well inside it, so
+     * scrolling can carry on in both directions.
+     *
+     * @param position Line of file once indexed, else kilobyte of file
+     */
+    private void jumpTo(int position) {
+        if (file == null || isSliding)
+            return;
+
+        try {
+            isSliding = true;
+            long target = pageFirstLine >= 0
+                ? findLineOffset(lineIndex, position)
+                : findLineStart(channel, Math.min(fileSize, (long) position * 1024));
+
+            boolean isInPage = target >= pageStart && target < pageEnd
+                && (pageStart == 0 || target - pageStart >= PAGE_SIZE / 4)
+                && (pageEnd == fileSize || pageEnd - target >= PAGE_SIZE / 4);
+
+            if (isInPage) {
+                scrollToLine(countLines(channel, pageStart, target));
+            } else {
+                long start = findLineStart(channel, Math.max(0, target - PAGE_SIZE / 2));
+                showPage(start, countLines(channel, start, target));
+            }
+
+        } catch (IOException error) {
+            error.printStackTrace();
+            MainWindow.consoleLog("Error reading file: " + file);
+
+        } finally {
+            isSliding = false;
+        }
+    }
+
+    /**
+     * Move file scroll bar to the top line shown. Not moved while being
+     * dragged, so the thumb stays under the mouse.
+     */
+    private void updateFileScrollBar() {
+        if (file == null || fileScrollBar.getValueIsAdjusting())
+            return;
+
+        int lineHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+        int visibleLines = Math.max(1, scrollPane.getViewport().getHeight() / Math.max(1, lineHeight));
+        int pageLines = Math.max(1, textArea.getLineCount());
+        int topLine = getTopLine();
+
+        long value, extent, maximum;
+        if (pageFirstLine >= 0) {
+            maximum = lineIndex.getLineCount();
+            value = pageFirstLine + topLine;
+            extent = visibleLines;
+        } else {
+            long pageKilobytes = (pageEnd - pageStart) / 1024;
+            maximum = Math.max(1, fileSize / 1024);
+            value = pageStart / 1024 + pageKilobytes * topLine / pageLines;
+            extent = Math.max(1, pageKilobytes * visibleLines / pageLines);
+        }
+
+        maximum = Math.min(maximum, Integer.MAX_VALUE);
+        extent = Math.min(extent, maximum);
+        value = Math.min(value, maximum - extent);
+
+        isUpdatingFileScrollBar = true;
+        try {
+            fileScrollBar.setValues((int) value, (int) extent, 0, (int) maximum);
+            fileScrollBar.setVisible(true);
+        } finally {
+            isUpdatingFileScrollBar = false;
+        }
+    }
+
+    /**
+     * Read page starting at <code>start</code> up to the first line break
+     * after <code>PAGE_SIZE</code> and show it in text area.
+     *
+     * @param start Offset of first line of page
+     * @param topLine Line of page to scroll to top of the view
+     */
+    private void showPage(long start, int topLine) throws IOException {
+        long end = findPageEnd(channel, fileSize, start);
+        showText(readText(channel, start, end), start, end, topLine);
+    }
+
+    // End of page starting at start, first line break after PAGE_SIZE
+    private static long findPageEnd(FileChannel channel, long fileSize, long start) throws IOException {
+        long end = Math.min(fileSize, start + PAGE_SIZE);
+        if (end < fileSize)
+            end = findNextLineStart(channel, fileSize, end);
+        return end;
+    }
+
+    private static String readText(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        readFully(channel, bytes, start);
+        return new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8);
+    }
+
+    private void showText(String text, long start, long end, int topLine) {
+        pageStart = start;
+        pageEnd = end;
+
+        isSliding = true;
+        try {
+            textArea.setText(text);
+            scrollToLine(topLine);
+        } finally {
+            isSliding = false;
+        }
+        updatePageFirstLine();
+        updateTitle();
+        updateFileScrollBar();
+    }
+
+    // Counts at most INDEX_INTERVAL lines, only once per page
+    private void updatePageFirstLine() {
+        pageFirstLine = -1;
+        LineIndex index = lineIndex;
+        if (index == null || !index.isComplete())
+            return;
+
+        try {
+            pageFirstLine = getLineNumber(index, pageStart);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int getTopLine() {
+        Point viewPosition = scrollPane.getViewport().getViewPosition();
+        int offset = textArea.viewToModel2D(viewPosition);
+        try {
+            return textArea.getLineOfOffset(Math.max(0, offset));
+        } catch (BadLocationException e) {
+            return 0;
+        }
+    }
+
+    private void scrollToLine(int line) {
+        line = Math.max(0, Math.min(line, textArea.getLineCount() - 1));
+        try {
+            int offset = textArea.getLineStartOffset(line);
+            textArea.setCaretPosition(offset);
+
+            // Lay out new text before moving view to line
+            scrollPane.validate();
+            int lineHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+            int y = textArea.getInsets().top + line * lineHeight;
+            int maxY = Math.max(0, textArea.getPreferredSize().height - scrollPane.getViewport().getHeight());
+            scrollPane.getViewport().setViewPosition(new Point(0, Math.min(y, maxY)));
+
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void updateTitle() {
+        String newTitle = title;
+
+        if (file != null) {
+            if (pageFirstLine >= 0) {
+                long firstLine = pageFirstLine + 1;
+                long lastLine = firstLine + textArea.getLineCount() - 1;
+                newTitle = String.format("%s (lines %,d - %,d of %,d)",
+                    title, firstLine, lastLine, lineIndex.getLineCount());
+            } else {
+                newTitle = title + " (indexing lines...)";
+            }
+        }
+
+        titledBorder.setTitle(newTitle);
+        titledComponent.repaint();
+    }
+
+    /**
+     * Scan file in the background, recording the offset of every
+     * <code>INDEX_INTERVAL</code>th line.
+     */
+    private void buildLineIndex(final File indexedFile) {
+        final LineIndex index = new LineIndex();
+        lineIndex = index;
+
+        indexExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileChannel indexChannel = FileChannel.open(indexedFile.toPath(), StandardOpenOption.READ);
+                    try {
+                        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+                        long lineCount = 0;
+                        long position = 0;
+                        index.add(0);
+
+                        while (!index.isCancelled) {
+                            buffer.clear();
+                            int read = indexChannel.read(buffer, position);
+                            if (read <= 0)
+                                break;
+
+                            byte[] bytes = buffer.array();
+                            for (int i = 0; i < read; i++) {
+                                if (bytes[i] == '\n') {
+                                    lineCount++;
+                                    if (lineCount % INDEX_INTERVAL == 0)
+                                        index.add(position + i + 1);
+                                }
+                            }
+                            position += read;
+                        }
+
+                        // Last line has no line break after it
+                        index.complete(lineCount + 1);
+
+                    } finally {
+                        indexChannel.close();
+                    }
+
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (lineIndex != index)
+                            return;
+
+                        // File scroll bar moves from kilobytes to lines
+                        updatePageFirstLine();
+                        updateTitle();
+                        updateFileScrollBar();
+                    }
+                });
+            }
+        });
+    }
+
+    // Line number (from 0) of line starting at offset
+    private long getLineNumber(LineIndex index, long offset) throws IOException {
+        int entry = index.findEntry(offset);
+        return (long) entry * INDEX_INTERVAL + countLines(channel, index.getOffset(entry), offset);
+    }
+
+    // Offset of start of line (from 0), from nearest index entry before it
+    private long findLineOffset(LineIndex index, long line) throws IOException {
+        int entry = (int) Math.min(line / INDEX_INTERVAL, index.getEntryCount() - 1);
+        long offset = index.getOffset(entry);
+        long linesToSkip = line - (long) entry * INDEX_INTERVAL;
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        while (linesToSkip > 0 && offset < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0)
+                break;
+
+            byte[] bytes = buffer.array();
+            int i = 0;
+            for (; i < read && linesToSkip > 0; i++) {
+                if (bytes[i] == '\n')
+                    linesToSkip--;
+            }
+            offset += i;
+        }
+
+        return Math.min(offset, fileSize);
+    }
+
+    // Number of line breaks between start and end offsets
+    private static int countLines(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SCAN_BUFFER_SIZE, Math.max(1, end - start)));
+        int lines = 0;
+        long position = start;
+
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0)
+                break;
+
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n')
+                    lines++;
+            }
+            position += read;
+        }
+
+        return lines;
+    }
+
+    /**
+     * Offset of the start of line containing <code>offset</code>. Lines
+     * longer than <code>MAX_LINE_LENGTH</code> are split at a character
+     * boundary instead.
+     */
+    private static long findLineStart(FileChannel channel, long offset) throws IOException {
+        if (offset <= 0)
+            return 0;
+
+        long scanStart = Math.max(0, offset - MAX_LINE_LENGTH);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (offset - scanStart));
+        readFully(channel, buffer, scanStart);
+
+        byte[] bytes = buffer.array();
+        for (int i = buffer.position() - 1; i >= 0; i--) {
+            if (bytes[i] == '\n')
+                return scanStart + i + 1;
+        }
+
+        return scanStart == 0 ? 0 : findCharacterStart(channel, offset);
+    }
+
+    /**
+     * Offset of the start of the line after <code>offset</code>, or end of
+     * file if there is none. Lines longer than <code>MAX_LINE_LENGTH</code>
+     * are split at a character boundary instead.
+     */
+    private static long findNextLineStart(FileChannel channel, long fileSize, long offset) throws IOException {
+        long scanEnd = Math.min(fileSize, offset + MAX_LINE_LENGTH);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (scanEnd - offset));
+        readFully(channel, buffer, offset);
+
+        byte[] bytes = buffer.array();
+        for (int i = 0; i < buffer.position(); i++) {
+            if (bytes[i] == '\n')
+                return offset + i + 1;
+        }
+
+        return scanEnd == fileSize ? fileSize : findCharacterStart(channel, scanEnd);
+    }
+
+    // Move back to the first byte of a UTF-8 character
+    private static long findCharacterStart(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        for (int i = 0; i < 4 && offset > 0; i++) {
+            buffer.clear();
+            channel.read(buffer, offset);
+            if ((buffer.get(0) & 0xC0) != 0x80)
+                break;
+            offset--;
+        }
+        return offset;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read <= 0)
+                break;
+        }
+    }
+}
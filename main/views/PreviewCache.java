@@ -0,0 +1,109 @@
+package main.views;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Decoded text of recently shown files, so stepping back and forth
+ * through a folder does not read and decode each file again. Least
+ * recently used files are dropped once the text of all files adds up to
+ * more than <code>MAX_CACHE_SIZE</code>.
+ * </p>
+ *
+ * <p>
+ * A file is read again once its modified time or size changed. Files
+ * changed by this program are dropped with <code>remove</code> right
+ * away, as a quick second save can keep the same modified time.
+ * </p>
+ */
+class PreviewCache {
+    private final static long MAX_CACHE_SIZE = 16 * 1024 * 1024; // in bytes
+
+    /**
+     * Text of a file as shown in the viewer, or the first or last page of
+     * a large file.
+     */
+    static class Entry {
+        final String text;
+        final long lastModified;
+        final long length;
+
+        // Pages of large files differ when shown from the top or bottom
+        final boolean isPaged;
+        final boolean fromEnd;
+        final long pageStart;
+        final long pageEnd;
+
+        Entry(String text, long lastModified, long length, boolean isPaged,
+                boolean fromEnd, long pageStart, long pageEnd) {
+            this.text = text;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.isPaged = isPaged;
+            this.fromEnd = fromEnd;
+            this.pageStart = pageStart;
+            this.pageEnd = pageEnd;
+        }
+
+        // Java strings are 2 bytes per character
+        long getSize() {
+            return text.length() * 2L;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size = 0;
+
+    /**
+     * @param file File to be shown
+     * @param fromEnd true if end of file is shown
+     * @param lastModified Current modified time of file
+     * @param length Current size of file
+     * @return Cached text of file, null if not cached or file has changed
+     */
+    synchronized Entry get(File file, boolean fromEnd, long lastModified, long length) {
+        String key = file.getAbsolutePath();
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+
+        if (entry.lastModified != lastModified || entry.length != length) {
+            remove(key);
+            return null;
+        }
+
+        if (entry.isPaged && entry.fromEnd != fromEnd)
+            return null;
+        return entry;
+    }
+
+    synchronized void put(File file, Entry entry) {
+        // A single file should not push out every other file
+        if (entry.getSize() > MAX_CACHE_SIZE / 4)
+            return;
+
+        String key = file.getAbsolutePath();
+        remove(key);
+        entries.put(key, entry);
+        size += entry.getSize();
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > MAX_CACHE_SIZE && iterator.hasNext()) {
+            size -= iterator.next().getSize();
+            iterator.remove();
+        }
+    }
+
+    synchronized void remove(File file) {
+        remove(file.getAbsolutePath());
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            size -= entry.getSize();
+    }
+}